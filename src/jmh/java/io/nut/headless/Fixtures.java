@@ -0,0 +1,209 @@
+/*
+ *  Fixtures.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates the benchmark fixtures under the nut.jmh.fixtures directory. Every fixture is
+ * deterministic and is reused by later runs once its ".complete" marker exists.
+ *
+ * @author franci
+ */
+public class Fixtures
+{
+    private static final String COMPLETE = ".complete";
+
+    public static File getBaseDir()
+    {
+        String dir = System.getProperty("nut.jmh.fixtures");
+        return (dir != null) ? new File(dir) : new File(System.getProperty("java.io.tmpdir"), "nut-headless-jmh");
+    }
+
+    private static boolean isComplete(File dir)
+    {
+        return new File(dir, COMPLETE).exists();
+    }
+
+    private static void complete(File dir) throws IOException
+    {
+        new File(dir, COMPLETE).createNewFile();
+    }
+
+    /**
+     * A tree of empty files, fanout files per directory and at most fanout directories per
+     * level, so it has the shape of a real file system rather than one huge directory.
+     */
+    public static File tree(int entries, int fanout) throws IOException
+    {
+        File root = new File(getBaseDir(), "tree-" + entries + "-" + fanout);
+        if (isComplete(root))
+        {
+            return root;
+        }
+        for (int i = 0; i < entries; i++)
+        {
+            int dir = i / fanout;
+            File parent = new File(root, "d" + (dir / fanout) + File.separator + "d" + (dir % fanout));
+            if (i % fanout == 0)
+            {
+                parent.mkdirs();
+            }
+            new File(parent, "f" + i + ".dat").createNewFile();
+        }
+        complete(root);
+        return root;
+    }
+
+    public static byte[] randomBytes(int size, long seed)
+    {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    public static File randomFile(String name, long size, long seed) throws IOException
+    {
+        File dir = getBaseDir();
+        File file = new File(dir, name);
+        if (file.length() == size)
+        {
+            return file;
+        }
+        dir.mkdirs();
+        Random random = new Random(seed);
+        byte[] buf = new byte[64 * 1024];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+        {
+            for (long left = size; left > 0; left -= buf.length)
+            {
+                random.nextBytes(buf);
+                out.write(buf, 0, (int) Math.min(buf.length, left));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * count files of the same size, file i has the contents of file i%distinct, all of them
+     * share the first half so prefix digests can't tell them apart.
+     */
+    public static File duplicates(int count, int distinct, int size) throws IOException
+    {
+        File root = new File(getBaseDir(), "dups-" + count + "-" + distinct + "-" + size);
+        if (isComplete(root))
+        {
+            return root;
+        }
+        root.mkdirs();
+        byte[] data = randomBytes(size, 0);
+        for (int i = 0; i < count; i++)
+        {
+            byte[] tail = randomBytes(size - size / 2, 1 + i % distinct);
+            System.arraycopy(tail, 0, data, size / 2, tail.length);
+            Files.write(new File(root, "f" + i + ".dat").toPath(), data);
+        }
+        complete(root);
+        return root;
+    }
+
+    /**
+     * A zip nested depth times, the innermost one holds entries random files of entrySize bytes.
+     * Paths inside are "n.zip" for every level and "e0.dat".."eN.dat" at the bottom.
+     */
+    public static File nestedZip(int depth, int entries, int entrySize) throws IOException
+    {
+        File file = new File(getBaseDir(), "nested-" + depth + "-" + entries + "-" + entrySize + ".zip");
+        if (file.exists())
+        {
+            return file;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes))
+        {
+            for (int i = 0; i < entries; i++)
+            {
+                zip.putNextEntry(new ZipEntry("e" + i + ".dat"));
+                zip.write(randomBytes(entrySize, i));
+                zip.closeEntry();
+            }
+        }
+        for (int i = 1; i < depth; i++)
+        {
+            byte[] inner = bytes.toByteArray();
+            bytes = new ByteArrayOutputStream();
+            try (ZipOutputStream zip = new ZipOutputStream(bytes))
+            {
+                zip.putNextEntry(new ZipEntry("n.zip"));
+                zip.write(inner);
+                zip.closeEntry();
+            }
+        }
+        getBaseDir().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), bytes.toByteArray());
+        tmp.renameTo(file);
+        return file;
+    }
+
+    /**
+     * A smooth gradient with some noise, close enough to a photo for scaling and hashing.
+     */
+    public static BufferedImage image(int width, int height, int type, long seed)
+    {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(seed);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int r = (x * 255 / width + random.nextInt(16)) & 0xff;
+                int g = (y * 255 / height + random.nextInt(16)) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(16)) & 0xff;
+                row[x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    public static byte[] encode(BufferedImage image, String format) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out))
+        {
+            throw new IOException("no writer for " + format);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  SwapImageColorBenchmark.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import io.nut.headless.Fixtures;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Swaps the colors of a 1920x1080 image, int and byte rasters take the direct paths and
+ * TYPE_USHORT_565_RGB the getRGB/setRGB fallback.
+ *
+ * @author franci
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SwapImageColorBenchmark
+{
+    // TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR and TYPE_USHORT_565_RGB
+    @Param({"1", "2", "5", "8"})
+    public int type;
+
+    @Param({"1", "3", "6"})
+    public int op;
+
+    private SwapImageColor swap;
+
+    @Setup
+    public void setup()
+    {
+        BufferedImage src = Fixtures.image(1920, 1080, type, 0);
+        BufferedImage dst = new BufferedImage(src.getWidth(), src.getHeight(), type);
+        swap = new SwapImageColor(src, dst, op);
+    }
+
+    @Benchmark
+    public SwapImageColor run()
+    {
+        swap.run();
+        return swap;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  ImageHashBuilderBenchmark.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image.hash;
+
+import io.nut.base.util.Hash;
+import io.nut.headless.Fixtures;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashes an already decoded 1920x1080 image.
+ *
+ * @author franci
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImageHashBuilderBenchmark
+{
+    @Param({"true", "false"})
+    public boolean gray;
+
+    @Param({"0", "32"})
+    public int size;
+
+    private ImageHashBuilder builder;
+    private BufferedImage image;
+
+    @Setup
+    public void setup()
+    {
+        builder = new ImageHashBuilder(gray, size, 0.05f, 0.05f);
+        image = Fixtures.image(1920, 1080, BufferedImage.TYPE_INT_RGB, 0);
+    }
+
+    @Benchmark
+    public Hash buildHash()
+    {
+        return builder.buildHash(image);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  ScaleImageBenchmark.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.imageio;
+
+import io.nut.headless.Fixtures;
+import io.nut.headless.image.RasterPool;
+import io.nut.headless.image.SimpleScaleDimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scales a 3000x2000 image down to 320x240, in memory and from jpeg to jpeg.
+ *
+ * @author franci
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScaleImageBenchmark
+{
+    // ImageScaler.AUTO, BICUBIC, PROGRESSIVE, AREA and LANCZOS
+    @Param({"0", "1", "2", "3", "4"})
+    public int algorithm;
+
+    @Param({"false", "true"})
+    public boolean gray;
+
+    private ScaleImage scale;
+    private BufferedImage image;
+    private byte[] jpeg;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        scale = new ScaleImage(new SimpleScaleDimension(320, 240), gray, algorithm);
+        image = Fixtures.image(3000, 2000, BufferedImage.TYPE_INT_RGB, 0);
+        jpeg = Fixtures.encode(image, "jpg");
+        out = new ByteArrayOutputStream(jpeg.length);
+    }
+
+    @Benchmark
+    public BufferedImage filter()
+    {
+        BufferedImage filtered = scale.filter(image);
+        RasterPool.getShared().giveBack(filtered);
+        return filtered;
+    }
+
+    @Benchmark
+    public int filterJpeg() throws IOException
+    {
+        out.reset();
+        scale.filter(new ByteArrayInputStream(jpeg), out, "jpg");
+        return out.size();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  FileDigestBenchmark.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.base.crypto.Digest;
+import io.nut.headless.Fixtures;
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Digests a fresh FileDigest up to a buildSizes() checkpoint, 1KB (0) to 72MB (18).
+ *
+ * @author franci
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileDigestBenchmark
+{
+    private static final long[] SIZES = FileDigest.buildSizes();
+    private static final int LAST = 18;
+
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18"})
+    public int checkpoint;
+
+    private File file;
+    private long size;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        file = Fixtures.randomFile("digest-" + SIZES[LAST] + ".dat", SIZES[LAST], 0);
+        size = SIZES[checkpoint];
+    }
+
+    @Benchmark
+    public byte[] getHash() throws Exception
+    {
+        FileDigest digest = new FileDigest(file, MessageDigest.getInstance(Digest.SHA256));
+        // keepOff closes the stream, otherwise every call leaks a descriptor until a GC
+        digest.keepOn();
+        try
+        {
+            return digest.getHash(size);
+        }
+        finally
+        {
+            digest.keepOff();
+        }
+    }
+}
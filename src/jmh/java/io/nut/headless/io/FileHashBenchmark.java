@@ -0,0 +1,89 @@
+/*
+ *  FileHashBenchmark.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.headless.Fixtures;
+import io.nut.headless.io.virtual.VirtualFile;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sorts same sized files with FileHash and counts the duplicates found next to each other,
+ * the way duplicate finders use it.
+ *
+ * @author franci
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileHashBenchmark
+{
+    @Param({"1000"})
+    public int count;
+
+    @Param({"4096", "1048576"})
+    public int size;
+
+    private VirtualFile[] files;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        File[] list = Fixtures.duplicates(count, count / 4, size).listFiles((dir, name) -> name.endsWith(".dat"));
+        Arrays.sort(list);
+        files = VirtualFile.asVirtualFile(list);
+    }
+
+    @Benchmark
+    public int dedupe()
+    {
+        FileHash[] hashes = new FileHash[files.length];
+        for (int i = 0; i < files.length; i++)
+        {
+            hashes[i] = new FileHash(files[i]);
+        }
+        Arrays.sort(hashes);
+        int dups = 0;
+        for (int i = 1; i < hashes.length; i++)
+        {
+            if (hashes[i - 1].compareTo(hashes[i]) == 0)
+            {
+                dups++;
+            }
+        }
+        return dups;
+    }
+}
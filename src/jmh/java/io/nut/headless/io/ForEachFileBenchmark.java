@@ -0,0 +1,82 @@
+/*
+ *  ForEachFileBenchmark.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.headless.Fixtures;
+import io.nut.headless.io.virtual.VirtualFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Walks a synthetic tree, 100 files per directory.
+ *
+ * @author franci
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ForEachFileBenchmark
+{
+    @Param({"10000", "1000000"})
+    public int entries;
+
+    private File root;
+    private ForEachFileOptions options;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        root = Fixtures.tree(entries, 100);
+        options = new ForEachFileOptions();
+        options.setAutoOmit(false);
+    }
+
+    @Benchmark
+    public long walk() throws IOException
+    {
+        final long[] count = new long[1];
+        ForEachFile fef = new ForEachFile(new File[]{root}, null, options)
+        {
+            @Override
+            protected void doForEach(VirtualFile fe)
+            {
+                count[0]++;
+            }
+        };
+        fef.run();
+        return count[0];
+    }
+}
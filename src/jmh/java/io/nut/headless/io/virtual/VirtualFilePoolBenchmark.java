@@ -0,0 +1,85 @@
+/*
+ *  VirtualFilePoolBenchmark.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io.virtual;
+
+import io.nut.headless.Fixtures;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opens and reads the last entry of a zip nested depth times.
+ *
+ * @author franci
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VirtualFilePoolBenchmark
+{
+    private static final int ENTRIES = 64;
+
+    @Param({"1", "2", "3"})
+    public int depth;
+
+    private final VirtualFilePool pool = new VirtualFilePool();
+    private VirtualFile entry;
+    private byte[] buf;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        VirtualFile file = new VirtualFile(Fixtures.nestedZip(depth, ENTRIES, 16 * 1024));
+        for (int i = 1; i < depth; i++)
+        {
+            file = new VirtualFile(file, "n.zip");
+        }
+        entry = new VirtualFile(file, "e" + (ENTRIES - 1) + ".dat");
+        buf = new byte[64 * 1024];
+    }
+
+    @Benchmark
+    public long open() throws Exception
+    {
+        long count = 0;
+        try (InputStream in = pool.get(entry))
+        {
+            for (int r; (r = in.read(buf)) > 0; )
+            {
+                count += r;
+            }
+        }
+        return count;
+    }
+}
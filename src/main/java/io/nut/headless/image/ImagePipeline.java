@@ -0,0 +1,433 @@
+/*
+ *  ImagePipeline.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An ordered chain of image operations run over a packed int raster. Consecutive
+ * per pixel operations are fused into a single traversal, and into the output of a
+ * preceding blur; a crop is a view that the next step reads in place. A final gray
+ * conversion is written straight into the output by PixelKernels.luma. Intermediate
+ * rasters are borrowed from a RasterPool.
+ * <p>
+ * The output is TYPE_BYTE_GRAY when the last per pixel operation is gray and
+ * TYPE_INT_RGB otherwise, an input that no step changes is returned as is.
+ * Build the pipeline before using it, filter is thread safe afterwards.
+ *
+ * @author franci
+ */
+public class ImagePipeline
+{
+    interface PixelOp
+    {
+        int apply(int argb);
+    }
+
+    static final PixelOp GRAY = c ->
+    {
+        final int l = (77*((c>>16)&0xff) + 150*((c>>8)&0xff) + 29*(c&0xff) + 128) >> 8;
+        return (c & 0xff000000) | (l<<16) | (l<<8) | l;
+    };
+
+    private final RasterPool pool;
+    private final ArrayList<Step> steps = new ArrayList<>();
+    private boolean gray = false;
+    // a gray conversion that no step follows yet, done straight into the output bytes
+    private boolean trailingGray = false;
+
+    public ImagePipeline(RasterPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public ImagePipeline()
+    {
+        this(RasterPool.getShared());
+    }
+
+    public ImagePipeline crop(int x, int y, int w, int h)
+    {
+        endGray();
+        steps.add(new CropStep(x, y, w, h));
+        return this;
+    }
+
+    /**
+     * @param algorithm one of ImageScaler.AUTO, BICUBIC, PROGRESSIVE, AREA or LANCZOS
+     */
+    public ImagePipeline scale(ScaleDimension scale, int algorithm)
+    {
+        if(scale!=null)
+        {
+            endGray();
+            steps.add(new ScaleStep(scale, algorithm));
+        }
+        return this;
+    }
+
+    public ImagePipeline scale(ScaleDimension scale)
+    {
+        return scale(scale, ImageScaler.AUTO);
+    }
+
+    public ImagePipeline gray()
+    {
+        trailingGray = true;
+        gray = true;
+        return this;
+    }
+
+    /**
+     * 3x3 box blur, edges are clamped.
+     */
+    public ImagePipeline blur()
+    {
+        endGray();
+        steps.add(new BlurStep());
+        return this;
+    }
+
+    /**
+     * @param op one of the SwapImageColor operations
+     */
+    public ImagePipeline swap(int op)
+    {
+        final SwapColor swap = SwapColor.build(op);
+        if(swap==null)
+        {
+            throw new IllegalArgumentException("unknown swap operation "+op);
+        }
+        if(op!=SwapImageColor.RGB)
+        {
+            endGray();
+            addPixelOp(swap::swap);
+            gray = false;
+        }
+        return this;
+    }
+
+    public boolean isEmpty()
+    {
+        return steps.isEmpty() && !trailingGray;
+    }
+
+    /**
+     * The scale the pipeline starts with, if any.
+     */
+    public ScaleDimension getLeadingScale()
+    {
+        return (!steps.isEmpty() && steps.get(0) instanceof ScaleStep) ? ((ScaleStep)steps.get(0)).scale : null;
+    }
+
+    /**
+     * A pipeline with every step but the first one.
+     */
+    public ImagePipeline getTail()
+    {
+        ImagePipeline tail = new ImagePipeline(pool);
+        tail.steps.addAll(steps.subList(Math.min(1, steps.size()), steps.size()));
+        tail.gray = gray;
+        tail.trailingGray = trailingGray;
+        return tail;
+    }
+
+    public BufferedImage filter(BufferedImage img)
+    {
+        if(isEmpty())
+        {
+            return img;
+        }
+        final boolean direct = Rasters.isDirect(img);
+        final Frame source = new Frame(Rasters.pixels(img), 0, img.getWidth(), img.getWidth(), img.getHeight(), !direct);
+        Frame cur = source;
+        for(Step step : steps)
+        {
+            Frame next = step.apply(cur, pool);
+            if(next.pixels!=cur.pixels && cur.owned)
+            {
+                pool.giveBack(cur.pixels);
+            }
+            cur = next;
+        }
+        if(cur==source && direct && !trailingGray)
+        {
+            return img;
+        }
+        return gray ? toGray(cur) : toRGB(cur);
+    }
+
+    private void endGray()
+    {
+        if(trailingGray)
+        {
+            addPixelOp(GRAY);
+            trailingGray = false;
+        }
+    }
+
+    private void addPixelOp(PixelOp op)
+    {
+        Step last = steps.isEmpty() ? null : steps.get(steps.size()-1);
+        if(last instanceof PixelStep)
+        {
+            ((PixelStep)last).add(op);
+        }
+        else if(last instanceof BlurStep)
+        {
+            ((BlurStep)last).post.add(op);
+        }
+        else
+        {
+            PixelStep step = new PixelStep();
+            step.add(op);
+            steps.add(step);
+        }
+    }
+
+    private BufferedImage toGray(Frame f)
+    {
+        BufferedImage img = pool.borrowImage(f.w, f.h, BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] data = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+        final PixelKernels kernels = PixelKernels.get();
+        Rasters.forEachBand(f.w, f.h, (y0, y1) ->
+        {
+            for(int y=y0;y<y1;y++)
+            {
+                if(trailingGray)
+                {
+                    kernels.luma(f.pixels, f.offset+y*f.stride, data, y*f.w, f.w);
+                    continue;
+                }
+                for(int x=0, s=f.offset+y*f.stride, d=y*f.w;x<f.w;x++)
+                {
+                    data[d++] = (byte) f.pixels[s++];
+                }
+            }
+        });
+        if(f.owned)
+        {
+            pool.giveBack(f.pixels);
+        }
+        return img;
+    }
+
+    private BufferedImage toRGB(Frame f)
+    {
+        if(f.owned && f.offset==0 && f.stride==f.w && f.pixels.length==f.w*f.h)
+        {
+            //the array goes with the image, it is not given back
+            return Rasters.wrap(f.pixels, f.w, f.h, false);
+        }
+        BufferedImage img = pool.borrowImage(f.w, f.h, BufferedImage.TYPE_INT_RGB);
+        int[] dst = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+        for(int y=0;y<f.h;y++)
+        {
+            System.arraycopy(f.pixels, f.offset+y*f.stride, dst, y*f.w, f.w);
+        }
+        if(f.owned)
+        {
+            pool.giveBack(f.pixels);
+        }
+        return img;
+    }
+
+    /**
+     * A region of 0xAARRGGBB pixels, owned pixels may be written and given back to the pool.
+     */
+    static final class Frame
+    {
+        final int[] pixels;
+        final int offset;
+        final int stride;
+        final int w;
+        final int h;
+        final boolean owned;
+
+        Frame(int[] pixels, int offset, int stride, int w, int h, boolean owned)
+        {
+            this.pixels = pixels;
+            this.offset = offset;
+            this.stride = stride;
+            this.w = w;
+            this.h = h;
+            this.owned = owned;
+        }
+    }
+
+    abstract static class Step
+    {
+        abstract Frame apply(Frame f, RasterPool pool);
+    }
+
+    static final class CropStep extends Step
+    {
+        final int x;
+        final int y;
+        final int w;
+        final int h;
+
+        CropStep(int x, int y, int w, int h)
+        {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        Frame apply(Frame f, RasterPool pool)
+        {
+            final int x0 = Math.max(0, Math.min(x, f.w-1));
+            final int y0 = Math.max(0, Math.min(y, f.h-1));
+            final int cw = Math.max(1, Math.min(w, f.w-x0));
+            final int ch = Math.max(1, Math.min(h, f.h-y0));
+            if(x0==0 && y0==0 && cw==f.w && ch==f.h)
+            {
+                return f;
+            }
+            return new Frame(f.pixels, f.offset + y0*f.stride + x0, f.stride, cw, ch, f.owned);
+        }
+    }
+
+    static final class ScaleStep extends Step
+    {
+        final ScaleDimension scale;
+        final int algorithm;
+
+        ScaleStep(ScaleDimension scale, int algorithm)
+        {
+            this.scale = scale;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        Frame apply(Frame f, RasterPool pool)
+        {
+            final Dimension size = new Dimension(f.w, f.h);
+            final Dimension resize = scale.convert(size);
+            if(resize==null || resize.equals(size))
+            {
+                return f;
+            }
+            final int dw = resize.width;
+            final int dh = resize.height;
+            final int alg = (algorithm==ImageScaler.AUTO) ? ImageScaler.choose(size, resize) : algorithm;
+            if(alg==ImageScaler.AREA || alg==ImageScaler.LANCZOS)
+            {
+                int[] dst = pool.borrowInts(dw*dh);
+                ImageScaler.scale(f.pixels, f.offset, f.stride, f.w, f.h, dst, dw, dh, false, alg);
+                return new Frame(dst, 0, dw, dw, dh, true);
+            }
+            BufferedImage src = Rasters.wrap(f.pixels, f.offset, f.stride, f.w, f.h, false);
+            BufferedImage dst = ImageScaler.scale(src, dw, dh, BufferedImage.TYPE_INT_RGB, alg);
+            return new Frame(Rasters.pixels(dst), 0, dw, dw, dh, true);
+        }
+    }
+
+    static final class PixelStep extends Step
+    {
+        PixelOp[] ops = new PixelOp[0];
+
+        void add(PixelOp op)
+        {
+            ops = Arrays.copyOf(ops, ops.length+1);
+            ops[ops.length-1] = op;
+        }
+
+        int apply(int c)
+        {
+            for(PixelOp op : ops)
+            {
+                c = op.apply(c);
+            }
+            return c;
+        }
+
+        @Override
+        Frame apply(Frame f, RasterPool pool)
+        {
+            // in place when the frame is ours, otherwise into a pooled raster
+            final int[] dst = f.owned ? f.pixels : pool.borrowInts(f.w*f.h);
+            final int offset = f.owned ? f.offset : 0;
+            final int stride = f.owned ? f.stride : f.w;
+            Rasters.forEachBand(f.w, f.h, (y0, y1) ->
+            {
+                for(int y=y0;y<y1;y++)
+                {
+                    for(int x=0, s=f.offset+y*f.stride, d=offset+y*stride;x<f.w;x++)
+                    {
+                        dst[d++] = apply(f.pixels[s++]);
+                    }
+                }
+            });
+            return f.owned ? f : new Frame(dst, 0, f.w, f.w, f.h, true);
+        }
+    }
+
+    static final class BlurStep extends Step
+    {
+        final PixelStep post = new PixelStep();
+
+        @Override
+        Frame apply(Frame f, RasterPool pool)
+        {
+            final int w = f.w;
+            final int h = f.h;
+            final int[] dst = pool.borrowInts(w*h);
+            final boolean hasPost = post.ops.length>0;
+            Rasters.forEachBand(w, h, (y0, y1) ->
+            {
+                final int[] rows = new int[3];
+                for(int y=y0;y<y1;y++)
+                {
+                    rows[0] = f.offset + Math.max(0, y-1)*f.stride;
+                    rows[1] = f.offset + y*f.stride;
+                    rows[2] = f.offset + Math.min(h-1, y+1)*f.stride;
+                    for(int x=0;x<w;x++)
+                    {
+                        final int xl = Math.max(0, x-1);
+                        final int xr = Math.min(w-1, x+1);
+                        int a=0, r=0, g=0, b=0;
+                        for(int row : rows)
+                        {
+                            final int c0 = f.pixels[row+xl];
+                            final int c1 = f.pixels[row+x];
+                            final int c2 = f.pixels[row+xr];
+                            a += (c0>>>24) + (c1>>>24) + (c2>>>24);
+                            r += ((c0>>16)&0xff) + ((c1>>16)&0xff) + ((c2>>16)&0xff);
+                            g += ((c0>>8)&0xff) + ((c1>>8)&0xff) + ((c2>>8)&0xff);
+                            b += (c0&0xff) + (c1&0xff) + (c2&0xff);
+                        }
+                        int c = ((a+4)/9)<<24 | ((r+4)/9)<<16 | ((g+4)/9)<<8 | ((b+4)/9);
+                        dst[y*w+x] = hasPost ? post.apply(c) : c;
+                    }
+                }
+            });
+            return new Frame(dst, 0, w, w, h, true);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ *  ImageScaler.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Scaling algorithms for BufferedImage and packed int rasters.
+ *
+ * @author franci
+ */
+public class ImageScaler
+{
+    //chosen by the reduction ratio
+    static public final int AUTO=0;
+    //one Graphics2D bicubic pass
+    static public final int BICUBIC=1;
+    //Graphics2D bilinear halving steps plus a final bicubic pass
+    static public final int PROGRESSIVE=2;
+    //box filter with exact pixel coverage
+    static public final int AREA=3;
+    //separable Lanczos3
+    static public final int LANCZOS=4;
+
+    static public final int MIN=0;
+    static public final int MAX=4;
+
+    private static final int LANCZOS_LOBES = 3;
+
+    /**
+     * Chooses an algorithm for scaling from size to resize. A single bicubic pass is
+     * fine down to a half, progressive halving keeps quality down to an eighth and
+     * area averaging is the fastest non aliasing option beyond that.
+     */
+    public static int choose(Dimension size, Dimension resize)
+    {
+        double ratio = Math.max((double)resize.width/size.width, (double)resize.height/size.height);
+        if(ratio>=0.5)
+        {
+            return BICUBIC;
+        }
+        if(ratio>=0.125)
+        {
+            return PROGRESSIVE;
+        }
+        return AREA;
+    }
+
+    public static int choose(ScaleDimension scale, Dimension size)
+    {
+        Dimension resize = (scale==null) ? null : scale.convert(size);
+        return choose(size, resize==null ? size : resize);
+    }
+
+    /**
+     * Scales img to w x h, img is left untouched. The result is TYPE_BYTE_GRAY when gray
+     * is set and TYPE_INT_RGB otherwise.
+     */
+    public static BufferedImage scale(BufferedImage img, int w, int h, boolean gray, int algorithm)
+    {
+        return scale(img, w, h, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB, algorithm);
+    }
+
+    /**
+     * Scales img to w x h, img is left untouched.
+     * @param type TYPE_INT_RGB, TYPE_INT_ARGB or TYPE_BYTE_GRAY
+     */
+    public static BufferedImage scale(BufferedImage img, int w, int h, int type, int algorithm)
+    {
+        if(algorithm==AUTO)
+        {
+            algorithm = choose(new Dimension(img.getWidth(), img.getHeight()), new Dimension(w, h));
+        }
+        if(type==BufferedImage.TYPE_BYTE_GRAY)
+        {
+            return toGray(scale(img, w, h, BufferedImage.TYPE_INT_RGB, algorithm), true);
+        }
+        switch(algorithm)
+        {
+            case PROGRESSIVE:
+                return scaleProgressive(img, w, h, type);
+            case AREA:
+            case LANCZOS:
+            {
+                final boolean alpha = type==BufferedImage.TYPE_INT_ARGB;
+                BufferedImage scaled = RasterPool.getShared().borrowImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+                int[] dst = ((DataBufferInt)scaled.getRaster().getDataBuffer()).getData();
+                scale(Rasters.pixels(img), 0, img.getWidth(), img.getWidth(), img.getHeight(), dst, w, h, alpha, algorithm);
+                return scaled;
+            }
+            default:
+                return scaleByGraphics2D(img, w, h, type, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        }
+    }
+
+    /**
+     * Scales a region of 0xAARRGGBB pixels with the AREA or LANCZOS kernels.
+     * Rows are processed in parallel for big rasters.
+     */
+    public static void scale(int[] src, int offset, int stride, int sw, int sh, int[] dst, int dw, int dh, boolean alpha, int algorithm)
+    {
+        if(algorithm==AREA && sw%dw==0 && sh%dh==0)
+        {
+            // exact factors, every destination pixel is the average of a whole block
+            final int fx = sw/dw;
+            final int fy = sh/dh;
+            final PixelKernels kernels = PixelKernels.get();
+            Rasters.forEachBand(sw*fy, dh, (y0, y1) -> kernels.boxDownsample(src, offset, stride, fx, fy, dst, dw, y0, y1, alpha));
+            return;
+        }
+        final Contributions cx = algorithm==LANCZOS ? lanczos(sw, dw) : area(sw, dw);
+        final Contributions cy = algorithm==LANCZOS ? lanczos(sh, dh) : area(sh, dh);
+        final RasterPool pool = RasterPool.getShared();
+        final float[] tmp = pool.borrowFloats(4*dw*sh);
+
+        //horizontal pass, sh rows of dw pixels with 4 float channels
+        Rasters.forEachBand(dw, sh, (y0, y1) ->
+        {
+            for(int y=y0;y<y1;y++)
+            {
+                final int row = offset + y*stride;
+                int t = 4*dw*y;
+                for(int x=0;x<dw;x++)
+                {
+                    float a=0, r=0, g=0, b=0;
+                    final int start = row + cx.start[x];
+                    for(int k=0, wi=x*cx.width;k<cx.count[x];k++, wi++)
+                    {
+                        final int c = src[start+k];
+                        final float f = cx.weights[wi];
+                        a += f*(c>>>24);
+                        r += f*((c>>16)&0xff);
+                        g += f*((c>>8)&0xff);
+                        b += f*(c&0xff);
+                    }
+                    tmp[t++] = a;
+                    tmp[t++] = r;
+                    tmp[t++] = g;
+                    tmp[t++] = b;
+                }
+            }
+        });
+        //vertical pass
+        Rasters.forEachBand(dw, dh, (y0, y1) ->
+        {
+            for(int y=y0;y<y1;y++)
+            {
+                final int start = cy.start[y];
+                final int count = cy.count[y];
+                final int wi = y*cy.width;
+                for(int x=0;x<dw;x++)
+                {
+                    float a=0, r=0, g=0, b=0;
+                    for(int k=0, t=4*(dw*start+x);k<count;k++, t+=4*dw)
+                    {
+                        final float f = cy.weights[wi+k];
+                        a += f*tmp[t];
+                        r += f*tmp[t+1];
+                        g += f*tmp[t+2];
+                        b += f*tmp[t+3];
+                    }
+                    dst[y*dw+x] = ((alpha ? clamp(a) : 0xff)<<24) | (clamp(r)<<16) | (clamp(g)<<8) | clamp(b);
+                }
+            }
+        });
+        pool.giveBack(tmp);
+    }
+
+    /**
+     * Converts to TYPE_BYTE_GRAY with Rec. 601 luma, giving img back to the pool if it is
+     * no longer needed.
+     */
+    static BufferedImage toGray(BufferedImage img, boolean release)
+    {
+        final int w = img.getWidth();
+        final int[] pixels = Rasters.pixels(img);
+        final BufferedImage gray = RasterPool.getShared().borrowImage(w, img.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] data = ((DataBufferByte)gray.getRaster().getDataBuffer()).getData();
+        final PixelKernels kernels = PixelKernels.get();
+        Rasters.forEachBand(w, img.getHeight(), (y0, y1) -> kernels.luma(pixels, y0*w, data, y0*w, (y1-y0)*w));
+        if(release)
+        {
+            RasterPool.getShared().giveBack(img);
+        }
+        return gray;
+    }
+
+    private static BufferedImage scaleByGraphics2D(BufferedImage img, int w, int h, int type, Object interpolation)
+    {
+        BufferedImage scaledImage = RasterPool.getShared().borrowImage(w, h, type);
+        Graphics2D graphics2D = scaledImage.createGraphics();
+        try
+        {
+            // pooled images keep old content, it must be replaced instead of blended
+            graphics2D.setComposite(AlphaComposite.Src);
+            graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            graphics2D.drawImage(img, 0, 0, w, h, null);
+        }
+        finally
+        {
+            graphics2D.dispose();
+        }
+        return scaledImage;
+    }
+
+    private static BufferedImage scaleProgressive(BufferedImage img, int w, int h, int type)
+    {
+        final int stepType = (type==BufferedImage.TYPE_INT_ARGB) ? type : BufferedImage.TYPE_INT_RGB;
+        BufferedImage cur = img;
+        int cw = img.getWidth();
+        int ch = img.getHeight();
+        while(cw/2>=w && ch/2>=h)
+        {
+            cw /= 2;
+            ch /= 2;
+            BufferedImage next = scaleByGraphics2D(cur, cw, ch, stepType, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            if(cur!=img)
+            {
+                RasterPool.getShared().giveBack(cur);
+            }
+            cur = next;
+        }
+        BufferedImage scaled = scaleByGraphics2D(cur, w, h, type, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        if(cur!=img)
+        {
+            RasterPool.getShared().giveBack(cur);
+        }
+        return scaled;
+    }
+
+    private static int clamp(float v)
+    {
+        int i = (int) (v+0.5f);
+        return i<0 ? 0 : (i>255 ? 255 : i);
+    }
+
+    /**
+     * Source span and normalized weights of every destination pixel along one axis.
+     */
+    static final class Contributions
+    {
+        final int width;
+        final int[] start;
+        final int[] count;
+        final float[] weights;
+
+        Contributions(int dstSize, int width)
+        {
+            this.width = width;
+            this.start = new int[dstSize];
+            this.count = new int[dstSize];
+            this.weights = new float[dstSize*width];
+        }
+
+        void normalize(int i)
+        {
+            float sum = 0;
+            for(int k=0;k<count[i];k++)
+            {
+                sum += weights[i*width+k];
+            }
+            if(sum!=0)
+            {
+                for(int k=0;k<count[i];k++)
+                {
+                    weights[i*width+k] /= sum;
+                }
+            }
+        }
+    }
+
+    static Contributions area(int srcSize, int dstSize)
+    {
+        final double scale = (double)srcSize/dstSize;
+        final Contributions c = new Contributions(dstSize, (int)Math.ceil(scale)+1);
+        for(int i=0;i<dstSize;i++)
+        {
+            final double x0 = i*scale;
+            final double x1 = Math.min(srcSize, (i+1)*scale);
+            final int j0 = (int) x0;
+            final int j1 = Math.min(srcSize, (int) Math.ceil(x1));
+            c.start[i] = j0;
+            c.count[i] = Math.max(1, j1-j0);
+            for(int j=j0;j<j1;j++)
+            {
+                c.weights[i*c.width+j-j0] = (float) (Math.min(x1, j+1) - Math.max(x0, j));
+            }
+            if(j1<=j0)
+            {
+                c.weights[i*c.width] = 1;
+            }
+            c.normalize(i);
+        }
+        return c;
+    }
+
+    static Contributions lanczos(int srcSize, int dstSize)
+    {
+        final double scale = (double)srcSize/dstSize;
+        final double fscale = Math.max(1.0, scale);
+        final double support = LANCZOS_LOBES*fscale;
+        final Contributions c = new Contributions(dstSize, (int)Math.ceil(2*support)+1);
+        for(int i=0;i<dstSize;i++)
+        {
+            final double center = (i+0.5)*scale - 0.5;
+            final int j0 = Math.max(0, (int) Math.ceil(center-support));
+            final int j1 = Math.min(srcSize-1, (int) Math.floor(center+support));
+            c.start[i] = j0;
+            c.count[i] = j1-j0+1;
+            for(int j=j0;j<=j1;j++)
+            {
+                c.weights[i*c.width+j-j0] = (float) lanczos((j-center)/fscale);
+            }
+            c.normalize(i);
+        }
+        return c;
+    }
+
+    private static double lanczos(double x)
+    {
+        if(x==0)
+        {
+            return 1.0;
+        }
+        if(x<=-LANCZOS_LOBES || x>=LANCZOS_LOBES)
+        {
+            return 0.0;
+        }
+        final double px = Math.PI*x;
+        return LANCZOS_LOBES*Math.sin(px)*Math.sin(px/LANCZOS_LOBES)/(px*px);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  PixelKernels.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Raster level kernels for the image hot paths. The Vector API implementation is used
+ * when the jdk.incubator.vector module is present, run the JVM with
+ * --add-modules jdk.incubator.vector to enable it, otherwise a scalar one is used.
+ * Both give exactly the same results.
+ *
+ * @author franci
+ */
+public abstract class PixelKernels
+{
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNELS = "io.nut.headless.image.VectorPixelKernels";
+
+    private static final PixelKernels scalar = new ScalarPixelKernels();
+    private static final PixelKernels best = load();
+
+    private static PixelKernels load()
+    {
+        if(ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent())
+        {
+            try
+            {
+                return (PixelKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | LinkageError ex)
+            {
+                Logger.getLogger(PixelKernels.class.getName()).log(Level.FINE, "vector kernels not available", ex);
+            }
+        }
+        return scalar;
+    }
+
+    /**
+     * The fastest kernels available.
+     */
+    public static PixelKernels get()
+    {
+        return best;
+    }
+
+    public static PixelKernels getScalar()
+    {
+        return scalar;
+    }
+
+    public abstract boolean isVector();
+
+    /**
+     * Counts the first length positions where the unsigned bytes of a and b differ by
+     * more than threshold, it may stop as soon as the count is above limit.
+     */
+    public abstract int countDiffs(byte[] a, byte[] b, int length, int threshold, int limit);
+
+    /**
+     * Rec. 601 luma (77r+150g+29b+128)&gt;&gt;8 of n 0xAARRGGBB pixels.
+     */
+    public abstract void luma(int[] src, int srcPos, byte[] dst, int dstPos, int n);
+
+    /**
+     * Averages fx by fy blocks of 0xAARRGGBB pixels into the rows dy0 to dy1 of dst, whose
+     * width is dw. Alpha is set opaque unless alpha is true.
+     */
+    public abstract void boxDownsample(int[] src, int offset, int stride, int fx, int fy, int[] dst, int dw, int dy0, int dy1, boolean alpha);
+
+    /**
+     * Averages the column sums of fy rows in acc, sw per channel, into the dw pixels of dst from d.
+     */
+    static void boxRow(int[] acc, int sw, int fx, int fy, int[] dst, int d, int dw, boolean alpha)
+    {
+        final int n = fx*fy;
+        final int half = n/2;
+        for(int x=0, s=0;x<dw;x++)
+        {
+            int a=0, r=0, g=0, b=0;
+            for(int k=0;k<fx;k++, s++)
+            {
+                a += acc[s];
+                r += acc[sw+s];
+                g += acc[2*sw+s];
+                b += acc[3*sw+s];
+            }
+            final int aa = alpha ? (a+half)/n : 0xff;
+            dst[d++] = (aa<<24) | (((r+half)/n)<<16) | (((g+half)/n)<<8) | ((b+half)/n);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ *  RasterPool.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of scratch rasters for the image hot paths. Arrays are matched by exact length
+ * and images by width, height and type. Threads are spread over stripes to avoid
+ * contention, and the pooled bytes are kept under a budget evicting the least recently
+ * used sizes first. Borrowed content is undefined.
+ *
+ * @author franci
+ */
+public class RasterPool
+{
+    private static final int INTS = 0;
+    private static final int FLOATS = 1;
+    private static final int IMAGE = 2;
+
+    private static final RasterPool shared = new RasterPool(64L*1024*1024);
+
+    private final long budget;
+    private final Stripe[] stripes;
+    private final int mask;
+    private final AtomicLong pooled = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param budget max bytes kept in the pool
+     * @param stripes number of independent stripes, rounded up to a power of two
+     */
+    public RasterPool(long budget, int stripes)
+    {
+        int n = Integer.highestOneBit(Math.max(1, stripes-1)) << 1;
+        n = (stripes<=1) ? 1 : n;
+        this.budget = budget;
+        this.mask = n-1;
+        this.stripes = new Stripe[n];
+        for(int i=0;i<n;i++)
+        {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    public RasterPool(long budget)
+    {
+        this(budget, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static RasterPool getShared()
+    {
+        return shared;
+    }
+
+    public int[] borrowInts(int size)
+    {
+        int[] item = (int[]) poll(new Key(INTS, size, 0, 0));
+        return (item!=null) ? item : new int[size];
+    }
+
+    public float[] borrowFloats(int size)
+    {
+        float[] item = (float[]) poll(new Key(FLOATS, size, 0, 0));
+        return (item!=null) ? item : new float[size];
+    }
+
+    /**
+     * @param type a BufferedImage type other than TYPE_CUSTOM, TYPE_BYTE_INDEXED and TYPE_BYTE_BINARY
+     */
+    public BufferedImage borrowImage(int w, int h, int type)
+    {
+        BufferedImage item = (BufferedImage) poll(new Key(IMAGE, w, h, type));
+        return (item!=null) ? item : new BufferedImage(w, h, type);
+    }
+
+    /**
+     * Gives back an array, it must not be used afterwards.
+     */
+    public void giveBack(int[] item)
+    {
+        if(item!=null)
+        {
+            offer(new Key(INTS, item.length, 0, 0), item, 4L*item.length);
+        }
+    }
+
+    public void giveBack(float[] item)
+    {
+        if(item!=null)
+        {
+            offer(new Key(FLOATS, item.length, 0, 0), item, 4L*item.length);
+        }
+    }
+
+    /**
+     * Gives back an image, it must not be used afterwards. Custom images, images with a
+     * palette of their own and images that share or pad their raster are ignored.
+     */
+    public void giveBack(BufferedImage item)
+    {
+        if(item!=null && isPoolable(item.getType()) && Rasters.isCompact(item))
+        {
+            DataBuffer db = item.getRaster().getDataBuffer();
+            long bytes = (long)db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+            offer(new Key(IMAGE, item.getWidth(), item.getHeight(), item.getType()), item, bytes);
+        }
+    }
+
+    // indexed images may carry any palette, a borrower would get the colors of the last owner
+    private static boolean isPoolable(int type)
+    {
+        return type!=BufferedImage.TYPE_CUSTOM && type!=BufferedImage.TYPE_BYTE_INDEXED && type!=BufferedImage.TYPE_BYTE_BINARY;
+    }
+
+    public long getPooledBytes()
+    {
+        return pooled.get();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Drops every pooled raster.
+     */
+    public void clear()
+    {
+        for(Stripe stripe : stripes)
+        {
+            synchronized(stripe)
+            {
+                pooled.addAndGet(-stripe.bytes);
+                stripe.entries.clear();
+                stripe.bytes = 0;
+            }
+        }
+    }
+
+    private Stripe stripe()
+    {
+        return stripes[(int) Thread.currentThread().getId() & mask];
+    }
+
+    private Object poll(Key key)
+    {
+        Stripe stripe = stripe();
+        synchronized(stripe)
+        {
+            Entries entries = stripe.entries.get(key);
+            if(entries!=null && !entries.items.isEmpty())
+            {
+                Object item = entries.items.pop();
+                stripe.bytes -= entries.bytes;
+                pooled.addAndGet(-entries.bytes);
+                hits.incrementAndGet();
+                return item;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void offer(Key key, Object item, long bytes)
+    {
+        if(bytes>budget)
+        {
+            return;
+        }
+        Stripe stripe = stripe();
+        synchronized(stripe)
+        {
+            // evict least recently used sizes of this stripe while over budget
+            Iterator<Map.Entry<Key, Entries>> it = stripe.entries.entrySet().iterator();
+            while(pooled.get()+bytes>budget && it.hasNext())
+            {
+                Entries eldest = it.next().getValue();
+                while(!eldest.items.isEmpty() && pooled.get()+bytes>budget)
+                {
+                    eldest.items.removeLast();
+                    stripe.bytes -= eldest.bytes;
+                    pooled.addAndGet(-eldest.bytes);
+                }
+                if(eldest.items.isEmpty())
+                {
+                    it.remove();
+                }
+            }
+            if(pooled.get()+bytes>budget)
+            {
+                // the memory is held by other stripes
+                return;
+            }
+            Entries entries = stripe.entries.computeIfAbsent(key, k -> new Entries(bytes));
+            entries.items.push(item);
+            stripe.bytes += bytes;
+            pooled.addAndGet(bytes);
+        }
+    }
+
+    private static final class Stripe
+    {
+        // access order, so the eldest entry is the least recently used size
+        final LinkedHashMap<Key, Entries> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long bytes = 0;
+    }
+
+    private static final class Entries
+    {
+        final long bytes;
+        final ArrayDeque<Object> items = new ArrayDeque<>();
+
+        Entries(long bytes)
+        {
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Key
+    {
+        final int kind;
+        final int w;
+        final int h;
+        final int type;
+
+        Key(int kind, int w, int h, int type)
+        {
+            this.kind = kind;
+            this.w = w;
+            this.h = h;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == null)
+            {
+                return false;
+            }
+            if (getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.kind == other.kind && this.w == other.w && this.h == other.h && this.type == other.type;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(kind, w, h, type);
+        }
+    }
+}
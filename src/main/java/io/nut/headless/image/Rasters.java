@@ -0,0 +1,143 @@
+/*
+ *  Rasters.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.stream.IntStream;
+
+/**
+ * Raster helpers shared by the pixel kernels of this package.
+ *
+ * @author franci
+ */
+final class Rasters
+{
+    //images smaller than this are not worth splitting into bands
+    static final int PARALLEL_PIXELS = 256*256;
+
+    interface Band
+    {
+        void run(int y0, int y1);
+    }
+
+    /**
+     * Runs band over [0,h) split in row bands, in parallel when the image is big enough.
+     */
+    static void forEachBand(int w, int h, Band band)
+    {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        if(cores<2 || (long)w*h < PARALLEL_PIXELS)
+        {
+            band.run(0, h);
+            return;
+        }
+        final int rows = Math.max(1, (h + cores*4 - 1) / (cores*4));
+        final int bands = (h + rows - 1) / rows;
+        IntStream.range(0, bands).parallel().forEach(i -> band.run(i*rows, Math.min(h, (i+1)*rows)));
+    }
+
+    static boolean isPlain(WritableRaster raster)
+    {
+        DataBuffer db = raster.getDataBuffer();
+        return raster.getSampleModelTranslateX()==0 && raster.getSampleModelTranslateY()==0 && db.getNumBanks()==1 && db.getOffset()==0;
+    }
+
+    /**
+     * Whether img owns its whole raster with no padding between rows, as a newly created
+     * image of the same type does.
+     */
+    static boolean isCompact(BufferedImage img)
+    {
+        final WritableRaster raster = img.getRaster();
+        if(raster.getParent()!=null || !isPlain(raster))
+        {
+            return false;
+        }
+        final SampleModel sm = raster.getSampleModel();
+        if(sm instanceof SinglePixelPackedSampleModel)
+        {
+            return ((SinglePixelPackedSampleModel)sm).getScanlineStride()==img.getWidth();
+        }
+        if(sm instanceof ComponentSampleModel)
+        {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            return csm.getScanlineStride()==csm.getPixelStride()*img.getWidth();
+        }
+        return false;
+    }
+
+    /**
+     * Whether img is a plain TYPE_INT_RGB or TYPE_INT_ARGB image whose scanline stride is its width.
+     */
+    static boolean isDirect(BufferedImage img)
+    {
+        final int type = img.getType();
+        if(type==BufferedImage.TYPE_INT_RGB || type==BufferedImage.TYPE_INT_ARGB)
+        {
+            WritableRaster raster = img.getRaster();
+            return isPlain(raster) && raster.getSampleModel() instanceof SinglePixelPackedSampleModel 
+                && ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride()==img.getWidth();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the 0xAARRGGBB pixels of img with a scanline stride equal to its width.
+     * For direct images it is the backing array itself, so it must be treated as read
+     * only. Alpha bits of TYPE_INT_RGB are undefined.
+     */
+    static int[] pixels(BufferedImage img)
+    {
+        if(isDirect(img))
+        {
+            return ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+        }
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    /**
+     * Wraps 0xAARRGGBB pixels into an image without copying them.
+     */
+    static BufferedImage wrap(int[] pixels, int w, int h, boolean alpha)
+    {
+        return wrap(pixels, 0, w, w, h, alpha);
+    }
+
+    /**
+     * Wraps a region of 0xAARRGGBB pixels into an image without copying them.
+     */
+    static BufferedImage wrap(int[] pixels, int offset, int stride, int w, int h, boolean alpha)
+    {
+        DirectColorModel cm = alpha ? (DirectColorModel) ColorModel.getRGBdefault() : new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+        SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, w, h, stride, cm.getMasks());
+        WritableRaster raster = Raster.createWritableRaster(sm, new DataBufferInt(pixels, pixels.length-offset, offset), null);
+        return new BufferedImage(cm, raster, false, null);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  ScalarPixelKernels.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.util.Arrays;
+
+/**
+ * Plain java PixelKernels.
+ *
+ * @author franci
+ */
+final class ScalarPixelKernels extends PixelKernels
+{
+    @Override
+    public boolean isVector()
+    {
+        return false;
+    }
+
+    @Override
+    public int countDiffs(byte[] a, byte[] b, int length, int threshold, int limit)
+    {
+        int count = 0;
+        for(int i=0;i<length && count<=limit;i++)
+        {
+            int diff = (a[i]&0xff) - (b[i]&0xff);
+            if(diff>threshold || -diff>threshold)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void luma(int[] src, int srcPos, byte[] dst, int dstPos, int n)
+    {
+        for(int i=0;i<n;i++)
+        {
+            final int c = src[srcPos+i];
+            dst[dstPos+i] = (byte) ((77*((c>>16)&0xff) + 150*((c>>8)&0xff) + 29*(c&0xff) + 128) >> 8);
+        }
+    }
+
+    @Override
+    public void boxDownsample(int[] src, int offset, int stride, int fx, int fy, int[] dst, int dw, int dy0, int dy1, boolean alpha)
+    {
+        final int sw = dw*fx;
+        final RasterPool pool = RasterPool.getShared();
+        final int[] acc = pool.borrowInts(4*sw);
+        for(int y=dy0;y<dy1;y++)
+        {
+            Arrays.fill(acc, 0);
+            for(int k=0;k<fy;k++)
+            {
+                final int row = offset + (y*fy+k)*stride;
+                for(int x=0;x<sw;x++)
+                {
+                    final int c = src[row+x];
+                    acc[x] += c>>>24;
+                    acc[sw+x] += (c>>16)&0xff;
+                    acc[2*sw+x] += (c>>8)&0xff;
+                    acc[3*sw+x] += c&0xff;
+                }
+            }
+            boxRow(acc, sw, fx, fy, dst, y*dw, dw, alpha);
+        }
+        pool.giveBack(acc);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  StripScaler.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Area average downscaling fed by row strips in top to bottom order, memory is
+ * bounded by the destination and the strip whatever the source size.
+ *
+ * @author franci
+ */
+public class StripScaler
+{
+    private final int sw;
+    private final int sh;
+    private final int dw;
+    private final int dh;
+    private final double scale;
+    private final ImageScaler.Contributions cx;
+    private final float[] acc;
+    private int[] pixels = new int[0];
+    private float[] rowsBuf = new float[0];
+
+    public StripScaler(int sw, int sh, int dw, int dh)
+    {
+        this.sw = sw;
+        this.sh = sh;
+        this.dw = dw;
+        this.dh = dh;
+        this.scale = (double)sh/dh;
+        this.cx = ImageScaler.area(sw, dw);
+        this.acc = new float[3*dw*dh];
+    }
+
+    /**
+     * Adds the first rows of strip as source rows starting at y0.
+     */
+    public void add(BufferedImage strip, int y0, int rows)
+    {
+        if(pixels.length<sw*rows)
+        {
+            pixels = new int[sw*rows];
+        }
+        strip.getRGB(0, 0, sw, rows, pixels, 0, sw);
+        add(pixels, 0, sw, y0, rows);
+    }
+
+    /**
+     * Adds rows of 0xAARRGGBB pixels as source rows starting at y0.
+     */
+    public void add(final int[] src, final int offset, final int stride, final int y0, final int rows)
+    {
+        if(rowsBuf.length<3*dw*rows)
+        {
+            rowsBuf = new float[3*dw*rows];
+        }
+        final float[] hrows = rowsBuf;
+        //horizontal pass, rows are independent
+        Rasters.forEachBand(sw, rows, (r0, r1) ->
+        {
+            for(int r=r0;r<r1;r++)
+            {
+                final int row = offset + r*stride;
+                int t = 3*dw*r;
+                for(int x=0;x<dw;x++)
+                {
+                    float red=0, green=0, blue=0;
+                    final int start = row + cx.start[x];
+                    for(int k=0, wi=x*cx.width;k<cx.count[x];k++, wi++)
+                    {
+                        final int c = src[start+k];
+                        final float f = cx.weights[wi];
+                        red += f*((c>>16)&0xff);
+                        green += f*((c>>8)&0xff);
+                        blue += f*(c&0xff);
+                    }
+                    hrows[t++] = red;
+                    hrows[t++] = green;
+                    hrows[t++] = blue;
+                }
+            }
+        });
+        //vertical pass, every source row adds its coverage to one or two destination rows
+        for(int r=0;r<rows;r++)
+        {
+            final int y = y0 + r;
+            final int i0 = Math.min(dh-1, (int) (y/scale));
+            final int i1 = Math.min(dh-1, (int) Math.ceil((y+1)/scale) - 1);
+            for(int i=i0;i<=i1;i++)
+            {
+                final float f = (float) ((Math.min(y+1, (i+1)*scale) - Math.max(y, i*scale)) / scale);
+                if(f<=0)
+                {
+                    continue;
+                }
+                for(int k=0, a=3*dw*i, t=3*dw*r;k<3*dw;k++)
+                {
+                    acc[a++] += f*hrows[t++];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the TYPE_INT_RGB result, to be called once every source row was added.
+     */
+    public BufferedImage getImage()
+    {
+        int[] dst = new int[dw*dh];
+        for(int i=0, a=0;i<dst.length;i++)
+        {
+            dst[i] = 0xff000000 | (clamp(acc[a++])<<16) | (clamp(acc[a++])<<8) | clamp(acc[a++]);
+        }
+        return Rasters.wrap(dst, dw, dh, false);
+    }
+
+    private static int clamp(float v)
+    {
+        int i = (int) (v+0.5f);
+        return i<0 ? 0 : (i>255 ? 255 : i);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *  SwapColor.java
+ *
+ *  Copyright (C) 2009-2023 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+/**
+ * A color swap over packed 0xAARRGGBB pixels, alpha is always preserved.
+ */
+abstract class SwapColor
+{
+    static final double ratio = 0.53;
+    static final int[] DIM = new int[256];
+    static
+    {
+        for(int i=0;i<DIM.length;i++)
+        {
+            DIM[i] = (int) (i*ratio);
+        }
+    }
+    final String rgb;
+    public SwapColor(String rgb)
+    {
+        this.rgb = rgb;
+    }
+    
+    abstract int swap(int c);
+
+    void swap(int[] src, int[] dst, int from, int to)
+    {
+        for(int i=from;i<to;i++)
+        {
+            dst[i] = swap(src[i]);
+        }
+    }
+    String getRGB()
+    {
+        return rgb;
+    }
+    static final SwapColor[] OPS=
+    {
+        new SwapColorRGB(),
+        new SwapColorGBR(),
+        new SwapColorBRG(),
+        new SwapColorRG(),
+        new SwapColorRB(),
+        new SwapColorGB(),
+        new SwapColorR(),
+        new SwapColorG(),
+        new SwapColorB()
+    };
+            
+    static SwapColor build(int op)
+    {
+        if(op>=0&&op<OPS.length)
+        {
+            return OPS[op];
+        }
+        return null;
+    }
+}
+
+class SwapColorRGB extends SwapColor
+{
+
+    public SwapColorRGB()
+    {
+        super("RGB");
+    }
+    
+    @Override
+    int swap(int c)
+    {
+        return c;
+    }
+    @Override
+    void swap(int[] src, int[] dst, int from, int to)
+    {
+        if(src!=dst)
+        {
+            System.arraycopy(src, from, dst, from, to-from);
+        }
+    }
+}
+
+    
+class SwapColorGBR extends SwapColor
+{
+
+    public SwapColorGBR()
+    {
+        super("GBR");
+    }
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xff000000) | ((c << 8) & 0x00ffff00) | ((c >>> 16) & 0xff);
+    }
+}
+    
+    
+class SwapColorBRG extends SwapColor
+{
+
+    public SwapColorBRG()
+    {
+        super("BRG");
+    }
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xff000000) | ((c << 16) & 0x00ff0000) | ((c >>> 8) & 0xffff);
+    }
+}
+    
+    
+class SwapColorRG extends SwapColor
+{
+    public SwapColorRG()
+    {
+        super("RG");
+    }
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xff0000ff) | ((c >>> 8) & 0xff00) | ((c << 8) & 0x00ff0000);
+    }
+}
+    
+
+class SwapColorRB extends SwapColor
+{
+    public SwapColorRB()
+    {
+        super("RB");
+    }
+    
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xff00ff00) | ((c >>> 16) & 0xff) | ((c << 16) & 0x00ff0000);
+    }
+}
+class SwapColorGB extends SwapColor
+{
+    public SwapColorGB()
+    {
+        super("GB");
+    }
+    
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xffff0000) | ((c >>> 8) & 0xff) | ((c << 8) & 0xff00);
+    }
+}
+
+class SwapColorR extends SwapColor
+{
+    public SwapColorR()
+    {
+        super("R");
+    }
+    
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xffff0000) | (DIM[(c >>> 8) & 0xff] << 8) | DIM[c & 0xff];
+    }
+}
+class SwapColorG extends SwapColor
+{
+    public SwapColorG()
+    {
+        super("G");
+    }
+    
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xff00ff00) | (DIM[(c >>> 16) & 0xff] << 16) | DIM[c & 0xff];
+    }
+}
+class SwapColorB extends SwapColor
+{
+    public SwapColorB()
+    {
+        super("B");
+    }
+    
+    @Override
+    int swap(int c)
+    {
+        return (c & 0xff0000ff) | (DIM[(c >>> 16) & 0xff] << 16) | (DIM[(c >>> 8) & 0xff] << 8);
+    }
+}
@@ -20,196 +20,15 @@
  */
 package io.nut.headless.image;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-
-
-abstract class SwapColor
-{
-    final double ratio = 0.53; 
-    final String rgb;
-    public SwapColor(String rgb)
-    {
-        this.rgb = rgb;
-    }
-    
-    int swap(int c)
-    {
-        Color color = new Color(c);
-        color = swap(color);
-        return color.getRGB();
-    }
-    abstract Color swap(Color c);
-    String getRGB()
-    {
-        return rgb;
-    }
-    static final SwapColor[] OPS=
-    {
-        new SwapColorRGB(),
-        new SwapColorGBR(),
-        new SwapColorBRG(),
-        new SwapColorRG(),
-        new SwapColorRB(),
-        new SwapColorGB(),
-        new SwapColorR(),
-        new SwapColorG(),
-        new SwapColorB()
-    };
-            
-    static SwapColor build(int op)
-    {
-        if(op>=0&&op<OPS.length)
-        {
-            return OPS[op];
-        }
-        return null;
-    }
-}
-
-class SwapColorRGB extends SwapColor
-{
-
-    public SwapColorRGB()
-    {
-        super("RGB");
-    }
-    
-    @Override
-    int swap(int c)
-    {
-        return c;
-    }
-    @Override
-    Color swap(Color c)
-    {
-        return c;
-    }
-}
-
-    
-class SwapColorGBR extends SwapColor
-{
-
-    public SwapColorGBR()
-    {
-        super("GBR");
-    }
-    @Override
-    Color swap(Color c)
-    {
-        return new Color(c.getGreen(),c.getBlue(),c.getRed(),c.getAlpha());
-    }
-}
-    
-    
-class SwapColorBRG extends SwapColor
-{
-
-    public SwapColorBRG()
-    {
-        super("BRG");
-    }
-    @Override
-    Color swap(Color c)
-    {
-        return new Color(c.getBlue(),c.getRed(),c.getGreen(),c.getAlpha());
-    }
-}
-    
-    
-class SwapColorRG extends SwapColor
-{
-    public SwapColorRG()
-    {
-        super("RG");
-    }
-    @Override
-    Color swap(Color c)
-    {
-        return new Color(c.getGreen(),c.getRed(),c.getBlue(),c.getAlpha());
-    }
-}
-    
-
-class SwapColorRB extends SwapColor
-{
-    public SwapColorRB()
-    {
-        super("RB");
-    }
-    
-    @Override
-    Color swap(Color c)
-    {
-        return new Color(c.getBlue(),c.getGreen(),c.getRed(),c.getAlpha());
-    }
-}
-class SwapColorGB extends SwapColor
-{
-    public SwapColorGB()
-    {
-        super("GB");
-    }
-    
-    @Override
-    Color swap(Color c)
-    {
-        return new Color(c.getRed(),c.getBlue(),c.getGreen(),c.getAlpha());
-    }
-}
-
-class SwapColorR extends SwapColor
-{
-    public SwapColorR()
-    {
-        super("R");
-    }
-    
-    @Override
-    Color swap(Color c)
-    {
-        int r = (int) Math.min(255,c.getRed());
-        int g = (int) (c.getGreen()*ratio);
-        int b = (int) (c.getBlue()*ratio);
-        return new Color(r,g,b,c.getAlpha());
-    }
-}
-class SwapColorG extends SwapColor
-{
-    public SwapColorG()
-    {
-        super("G");
-    }
-    
-    @Override
-    Color swap(Color c)
-    {
-        int r = (int) (c.getRed()*ratio);
-        int g = (int) Math.min(255,c.getGreen());
-        int b = (int) (c.getBlue()*ratio);
-        return new Color(r,g,b,c.getAlpha());
-    }
-}
-class SwapColorB extends SwapColor
-{
-    public SwapColorB()
-    {
-        super("B");
-    }
-    
-    @Override
-    Color swap(Color c)
-    {
-        int r = (int) (c.getRed()*ratio);
-        int g = (int) (c.getGreen()*ratio);
-        int b = (int) Math.min(255,c.getBlue());
-        return new Color(r,g,b,c.getAlpha());
-    }
-}
-
 /**
  *
  * @author franci
@@ -233,7 +52,6 @@ public class SwapImageColor implements Runnable
     static public final int MIN=0;
     static public final int MAX=8;
     
-    
     final BufferedImage src;
     final BufferedImage dst;
     final AtomicBoolean done= new AtomicBoolean(false);
@@ -250,14 +68,20 @@ public class SwapImageColor implements Runnable
     public void run()
     {
         done.set(false);
-        int w = src.getWidth();
-        int h = src.getHeight();
-        int t = src.getType();
-        
-        for(int y=0; y<h;y++)
-            for(int x=0; x<w;x++)
-                dst.setRGB(x, y, swap.swap(dst.getRGB(x,y)));
-    
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+
+        if(!swapInt(w, h) && !swapByte(w, h))
+        {
+            Rasters.forEachBand(w, h, (y0, y1) ->
+            {
+                RasterPool pool = RasterPool.getShared();
+                int[] rows = src.getRGB(0, y0, w, y1-y0, pool.borrowInts(w*(y1-y0)), 0, w);
+                swap.swap(rows, rows, 0, rows.length);
+                dst.setRGB(0, y0, w, y1-y0, rows, 0, w);
+                pool.giveBack(rows);
+            });
+        }
         done.set(true);
     }
 
@@ -265,4 +89,98 @@ public class SwapImageColor implements Runnable
     {
         return swap.getRGB();
     }
+
+    private boolean isCompatible(int w, int h)
+    {
+        return dst.getWidth()==w && dst.getHeight()==h && dst.getType()==src.getType() && Rasters.isPlain(src.getRaster()) && Rasters.isPlain(dst.getRaster());
+    }
+
+    // TYPE_INT_RGB, TYPE_INT_ARGB and TYPE_INT_ARGB_PRE store pixels as 0xAARRGGBB
+    private boolean swapInt(int w, int h)
+    {
+        final int type = src.getType();
+        if(type!=BufferedImage.TYPE_INT_RGB && type!=BufferedImage.TYPE_INT_ARGB && type!=BufferedImage.TYPE_INT_ARGB_PRE)
+        {
+            return false;
+        }
+        if(!isCompatible(w, h))
+        {
+            return false;
+        }
+        SampleModel ssm = src.getRaster().getSampleModel();
+        SampleModel dsm = dst.getRaster().getSampleModel();
+        if(!(ssm instanceof SinglePixelPackedSampleModel) || !(dsm instanceof SinglePixelPackedSampleModel))
+        {
+            return false;
+        }
+        final int stride = ((SinglePixelPackedSampleModel)ssm).getScanlineStride();
+        if(stride!=((SinglePixelPackedSampleModel)dsm).getScanlineStride())
+        {
+            return false;
+        }
+        final int[] s = ((DataBufferInt)src.getRaster().getDataBuffer()).getData();
+        final int[] d = ((DataBufferInt)dst.getRaster().getDataBuffer()).getData();
+        Rasters.forEachBand(w, h, (y0, y1) ->
+        {
+            for(int y=y0;y<y1;y++)
+            {
+                swap.swap(s, d, y*stride, y*stride+w);
+            }
+        });
+        return true;
+    }
+
+    // TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR and TYPE_4BYTE_ABGR_PRE, bands are located by the sample model
+    private boolean swapByte(int w, int h)
+    {
+        final int type = src.getType();
+        if(type!=BufferedImage.TYPE_3BYTE_BGR && type!=BufferedImage.TYPE_4BYTE_ABGR && type!=BufferedImage.TYPE_4BYTE_ABGR_PRE)
+        {
+            return false;
+        }
+        if(!isCompatible(w, h))
+        {
+            return false;
+        }
+        SampleModel ssm = src.getRaster().getSampleModel();
+        SampleModel dsm = dst.getRaster().getSampleModel();
+        if(!(ssm instanceof PixelInterleavedSampleModel) || !(dsm instanceof PixelInterleavedSampleModel))
+        {
+            return false;
+        }
+        final PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) ssm;
+        final PixelInterleavedSampleModel dm = (PixelInterleavedSampleModel) dsm;
+        if(sm.getScanlineStride()!=dm.getScanlineStride() || sm.getPixelStride()!=dm.getPixelStride() || !Arrays.equals(sm.getBandOffsets(), dm.getBandOffsets()))
+        {
+            return false;
+        }
+        final int stride = sm.getScanlineStride();
+        final int pixel = sm.getPixelStride();
+        final int[] offsets = sm.getBandOffsets();
+        final int ro = offsets[0];
+        final int go = offsets[1];
+        final int bo = offsets[2];
+        final int ao = offsets.length>3 ? offsets[3] : -1;
+        final byte[] s = ((DataBufferByte)src.getRaster().getDataBuffer()).getData();
+        final byte[] d = ((DataBufferByte)dst.getRaster().getDataBuffer()).getData();
+        Rasters.forEachBand(w, h, (y0, y1) ->
+        {
+            for(int y=y0;y<y1;y++)
+            {
+                for(int x=0, p=y*stride;x<w;x++, p+=pixel)
+                {
+                    int c = ((s[p+ro] & 0xff) << 16) | ((s[p+go] & 0xff) << 8) | (s[p+bo] & 0xff);
+                    c = swap.swap(c);
+                    d[p+ro] = (byte) (c >>> 16);
+                    d[p+go] = (byte) (c >>> 8);
+                    d[p+bo] = (byte) c;
+                    if(ao>=0 && s!=d)
+                    {
+                        d[p+ao] = s[p+ao];
+                    }
+                }
+            }
+        });
+        return true;
+    }
 }
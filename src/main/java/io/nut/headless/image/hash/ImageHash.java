@@ -42,6 +42,21 @@ public class ImageHash implements Hash
         this.hash = hash;
     }
 
+    public int getWidth()
+    {
+        return w;
+    }
+
+    public int getHeight()
+    {
+        return h;
+    }
+
+    public byte[] getBytes()
+    {
+        return hash.clone();
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -22,21 +22,35 @@ package io.nut.headless.image.hash;
 
 import io.nut.base.crypto.Digest;
 import io.nut.base.util.Hash;
-import io.nut.base.util.Utils;
+import io.nut.headless.image.ImageScaler;
+import io.nut.headless.image.RasterPool;
 import io.nut.headless.image.ScaleDimension;
 import io.nut.headless.image.SimpleScaleDimension;
+import io.nut.headless.imageio.ImageFormat;
+import io.nut.headless.imageio.ImageStrips;
 import io.nut.headless.imageio.ScaleImage;
 import io.nut.headless.io.virtual.VirtualFile;
 import io.nut.headless.io.virtual.VirtualFilePool;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import org.apache.commons.compress.archivers.ArchiveException;
 /**
  *
@@ -46,11 +60,22 @@ public class ImageHashBuilder
 {
     private static final AtomicInteger count = new AtomicInteger();
     private static final VirtualFilePool pool = new VirtualFilePool();
+    // getRGB of every TYPE_BYTE_GRAY level, gray rasters are stored linear not sRGB
+    private static final int[] GRAY_RGB = new int[256];
+    static
+    {
+        ColorModel cm = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+        for(int i=0;i<GRAY_RGB.length;i++)
+        {
+            GRAY_RGB[i] = cm.getRGB(new byte[]{(byte) i});
+        }
+    }
 
     private final ScaleImage scale;
     private final float colorThreshold;
     private final float countThresold;
     private final boolean gray;
+    private final boolean scaled;
  
     public ImageHashBuilder(boolean gray, int size, float colorThreshold, float countThreshold)
     {
@@ -59,6 +84,7 @@ public class ImageHashBuilder
         this.colorThreshold = colorThreshold;
         this.countThresold = countThreshold;
         this.gray = gray;
+        this.scaled = (sd != null);
     }
     
     public Hash buildHash(VirtualFile pf) throws FileNotFoundException, IOException, ArchiveException
@@ -70,12 +96,31 @@ public class ImageHashBuilder
         InputStream in = pool.get(pf);
         try
         {
-            BufferedImage image = ImageIO.read(in);
-            if(image!=null)
+            ImageInputStream iis = ImageIO.createImageInputStream(in);
+            if(iis==null)
             {
-                return buildHash(image);
+                return null;
+            }
+            try
+            {
+                ImageReader reader = ImageFormat.getReader(iis);
+                if(reader==null)
+                {
+                    return null;
+                }
+                try
+                {
+                    return buildHash(reader, pf);
+                }
+                finally
+                {
+                    reader.dispose();
+                }
+            }
+            finally
+            {
+                iis.close();
             }
-            return null;
         }
         catch(Exception ex)
         {
@@ -87,11 +132,107 @@ public class ImageHashBuilder
             in.close();
         }
     }
+
+    /**
+     * Hashes the first image of reader. Images above ImageStrips.getTiledPixels() are scaled
+     * or digested strip by strip with bounded memory.
+     */
+    public Hash buildHash(ImageReader reader) throws IOException
+    {
+        return buildHash(reader, null);
+    }
+
+    private Hash buildHash(ImageReader reader, VirtualFile pf) throws IOException
+    {
+        final ImageHashEvent event = new ImageHashEvent();
+        final boolean timed = event.isEnabled();
+        event.begin();
+        final int w = reader.getWidth(0);
+        final int h = reader.getHeight(0);
+        if(!ImageStrips.isTiled(w, h))
+        {
+            long t = timed ? System.nanoTime() : 0;
+            BufferedImage image = ImageStrips.read(reader, RasterPool.getShared());
+            if(timed)
+            {
+                event.decode = System.nanoTime() - t;
+                t = System.nanoTime();
+            }
+            try
+            {
+                return buildHash(image);
+            }
+            finally
+            {
+                RasterPool.getShared().giveBack(image);
+                if(timed)
+                {
+                    event.scale = System.nanoTime() - t;
+                }
+                commit(event, pf, w, h, false);
+            }
+        }
+        // strips are decoded and scaled together, all the time goes to scale
+        final long t = timed ? System.nanoTime() : 0;
+        count.incrementAndGet();
+        try
+        {
+            if(!scaled && colorThreshold<=0)
+            {
+                return buildTiledHash(reader, w, h);
+            }
+            BufferedImage filtered = scale.filter(reader);
+            try
+            {
+                return hashFiltered(filtered);
+            }
+            finally
+            {
+                RasterPool.getShared().giveBack(filtered);
+            }
+        }
+        finally
+        {
+            if(timed)
+            {
+                event.scale = System.nanoTime() - t;
+            }
+            commit(event, pf, w, h, true);
+        }
+    }
+
+    private static void commit(ImageHashEvent event, VirtualFile pf, int w, int h, boolean tiled)
+    {
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.path = (pf == null) ? null : pf.getPath();
+            event.width = w;
+            event.height = h;
+            event.tiled = tiled;
+            event.commit();
+        }
+    }
+
     public Hash buildHash(BufferedImage image)
     {
         count.incrementAndGet();
-        image = scale.filter(image);
+        BufferedImage filtered = scale.filter(image);
+        try
+        {
+            return hashFiltered(filtered);
+        }
+        finally
+        {
+            if(filtered!=image)
+            {
+                RasterPool.getShared().giveBack(filtered);
+            }
+        }
+    }
 
+    private Hash hashFiltered(BufferedImage image)
+    {
         int w = image.getWidth();
         int h = image.getHeight();
 
@@ -101,33 +242,237 @@ public class ImageHashBuilder
 //        frame.setVisible(true);
 //        frame.pack();
 
-        int[] pixels = null;
-        pixels = image.getRGB(0, 0, w, h, pixels, 0, w);
-        if(colorThreshold>0 && gray)
+        if(colorThreshold>0)
         {
-            byte[] hash = new byte[pixels.length];
-            for(int i=0;i<hash.length;i++)
-            {
-                hash[i] = (byte) (pixels[i] & 0xff);
-            }
+            byte[] hash = gray ? grayBytes(image) : rgbBytes(image);
             int hc = (w*h) + (w-h);
-//            System.out.println(Arrays.toString(hash));
             return new StickyImageHash(w, h, hc, hash, colorThreshold, countThresold);
         }
-        if(colorThreshold > 0)
+        MessageDigest md = newDigest();
+        update(md, image, h, new byte[4*w]);
+        byte[] hash = md.digest();
+        int hc = (w*h) + (w-h) + Arrays.hashCode(hash);
+        return new ImageHash(w, h, hc, hash);
+    }
+
+    /**
+     * 64 bit difference hash: image is reduced to 9x8 gray levels and every bit tells
+     * whether a level is lower than its right neighbour, row by row from the high bit.
+     * Similar images have hashes at a small hamming distance.
+     */
+    public static long buildDHash(BufferedImage image)
+    {
+        BufferedImage small = ImageScaler.scale(image, 9, 8, true, ImageScaler.AREA);
+        final WritableRaster raster = small.getRaster();
+        long hash = 0;
+        for(int y=0;y<8;y++)
         {
-            byte[]hash = Utils.asBytes(pixels);
-            int hc = (w*h) + (w-h);
-            System.out.println(Arrays.toString(hash));
-            return new StickyImageHash(w, h, hc, hash, colorThreshold, countThresold);
+            for(int x=0;x<8;x++)
+            {
+                hash = (hash<<1) | (raster.getSample(x, y, 0) < raster.getSample(x+1, y, 0) ? 1 : 0);
+            }
+        }
+        RasterPool.getShared().giveBack(small);
+        return hash;
+    }
+
+    // same digest as buildDigest over the whole image, fed strip by strip
+    private Hash buildTiledHash(ImageReader reader, int w, int h) throws IOException
+    {
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[4*w];
+        ImageStrips strips = new ImageStrips(reader);
+        while(strips.hasNext())
+        {
+            BufferedImage strip = strips.next();
+            final int rows = strips.getRows();
+            BufferedImage rgb = gray ? scale.filter(strip.getSubimage(0, 0, w, rows)) : strip;
+            update(md, rgb, rows, buf);
+            if(rgb!=strip)
+            {
+                RasterPool.getShared().giveBack(rgb);
+            }
         }
-        byte[]hash = buildDigest(pixels);
+        byte[] hash = md.digest();
         int hc = (w*h) + (w-h) + Arrays.hashCode(hash);
-        System.out.println(Arrays.toString(hash));
         return new ImageHash(w, h, hc, hash);
     }
+
+    /**
+     * Feeds the first rows of image to md as the big endian pixels getRGB would return.
+     * TYPE_BYTE_GRAY and TYPE_INT_RGB rasters are read in place, other types a row at a time.
+     */
+    private static void update(MessageDigest md, BufferedImage image, int rows, byte[] buf)
+    {
+        final int w = image.getWidth();
+        final WritableRaster raster = image.getRaster();
+        final SampleModel sm = raster.getSampleModel();
+        final int tx = raster.getSampleModelTranslateX();
+        final int ty = raster.getSampleModelTranslateY();
+        final int offset = raster.getDataBuffer().getOffset();
+        if(image.getType()==BufferedImage.TYPE_BYTE_GRAY && sm instanceof ComponentSampleModel)
+        {
+            final ComponentSampleModel csm = (ComponentSampleModel) sm;
+            final byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+            for(int y=0;y<rows;y++)
+            {
+                int from = offset + csm.getOffset(-tx, y-ty);
+                updateGray(md, data, from, from+w, buf);
+            }
+        }
+        else if(image.getType()==BufferedImage.TYPE_INT_RGB && sm instanceof SinglePixelPackedSampleModel)
+        {
+            final SinglePixelPackedSampleModel spsm = (SinglePixelPackedSampleModel) sm;
+            final int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+            for(int y=0;y<rows;y++)
+            {
+                int from = offset + spsm.getOffset(-tx, y-ty);
+                update(md, data, from, from+w, 0xff000000, buf);
+            }
+        }
+        else
+        {
+            final RasterPool rasters = RasterPool.getShared();
+            final int[] pixels = rasters.borrowInts(w);
+            for(int y=0;y<rows;y++)
+            {
+                image.getRGB(0, y, w, 1, pixels, 0, w);
+                update(md, pixels, 0, w, 0, buf);
+            }
+            rasters.giveBack(pixels);
+        }
+    }
+
+    // low byte of every pixel as getRGB would return it, the gray level for gray images
+    private static byte[] grayBytes(BufferedImage image)
+    {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final byte[] hash = new byte[w*h];
+        final WritableRaster raster = image.getRaster();
+        final SampleModel sm = raster.getSampleModel();
+        if(image.getType()==BufferedImage.TYPE_BYTE_GRAY && sm instanceof ComponentSampleModel)
+        {
+            final ComponentSampleModel csm = (ComponentSampleModel) sm;
+            final byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+            final int offset = raster.getDataBuffer().getOffset();
+            for(int y=0, i=0;y<h;y++)
+            {
+                int s = offset + csm.getOffset(-raster.getSampleModelTranslateX(), y-raster.getSampleModelTranslateY());
+                for(int x=0;x<w;x++)
+                {
+                    hash[i++] = (byte) GRAY_RGB[data[s++]&0xff];
+                }
+            }
+            return hash;
+        }
+        final RasterPool rasters = RasterPool.getShared();
+        final int[] pixels = rasters.borrowInts(w);
+        for(int y=0, i=0;y<h;y++)
+        {
+            image.getRGB(0, y, w, 1, pixels, 0, w);
+            for(int x=0;x<w;x++)
+            {
+                hash[i++] = (byte) pixels[x];
+            }
+        }
+        rasters.giveBack(pixels);
+        return hash;
+    }
+
+    // big endian 0xAARRGGBB of every pixel
+    private static byte[] rgbBytes(BufferedImage image)
+    {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final byte[] hash = new byte[4*w*h];
+        final WritableRaster raster = image.getRaster();
+        final SampleModel sm = raster.getSampleModel();
+        final boolean direct = image.getType()==BufferedImage.TYPE_INT_RGB && sm instanceof SinglePixelPackedSampleModel;
+        final RasterPool rasters = RasterPool.getShared();
+        final int[] row = direct ? null : rasters.borrowInts(w);
+        final int[] data = direct ? ((DataBufferInt)raster.getDataBuffer()).getData() : row;
+        for(int y=0, j=0;y<h;y++)
+        {
+            int s = 0;
+            if(direct)
+            {
+                s = raster.getDataBuffer().getOffset() + ((SinglePixelPackedSampleModel)sm).getOffset(-raster.getSampleModelTranslateX(), y-raster.getSampleModelTranslateY());
+            }
+            else
+            {
+                image.getRGB(0, y, w, 1, row, 0, w);
+            }
+            for(int x=0;x<w;x++)
+            {
+                int p = direct ? data[s++] | 0xff000000 : data[s++];
+                hash[j++] = (byte) (p >>> 24);
+                hash[j++] = (byte) (p >>> 16);
+                hash[j++] = (byte) (p >>> 8);
+                hash[j++] = (byte) p;
+            }
+        }
+        if(row!=null)
+        {
+            rasters.giveBack(row);
+        }
+        return hash;
+    }
+
     protected static byte[] buildDigest(int[] pixels)
     {
-        return Digest.sha256(Utils.asBytes(pixels));
+        MessageDigest md = newDigest();
+        update(md, pixels, 0, pixels.length, 0, new byte[4*Math.min(pixels.length, 16*1024)]);
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(Digest.SHA256);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // feeds pixels or'ed with bits as big endian bytes through buf, without a byte[] copy of the whole image
+    private static void update(MessageDigest md, int[] pixels, int from, int to, int bits, byte[] buf)
+    {
+        while(from<to)
+        {
+            int n = Math.min(to-from, buf.length/4);
+            for(int i=0, j=0;i<n;i++)
+            {
+                int p = pixels[from+i] | bits;
+                buf[j++] = (byte) (p >>> 24);
+                buf[j++] = (byte) (p >>> 16);
+                buf[j++] = (byte) (p >>> 8);
+                buf[j++] = (byte) p;
+            }
+            md.update(buf, 0, n*4);
+            from += n;
+        }
+    }
+
+    // feeds gray levels as the big endian pixels getRGB would return for them
+    private static void updateGray(MessageDigest md, byte[] levels, int from, int to, byte[] buf)
+    {
+        while(from<to)
+        {
+            int n = Math.min(to-from, buf.length/4);
+            for(int i=0, j=0;i<n;i++)
+            {
+                int p = GRAY_RGB[levels[from+i]&0xff];
+                buf[j++] = (byte) (p >>> 24);
+                buf[j++] = (byte) (p >>> 16);
+                buf[j++] = (byte) (p >>> 8);
+                buf[j++] = (byte) p;
+            }
+            md.update(buf, 0, n*4);
+            from += n;
+        }
     }
 }
@@ -0,0 +1,651 @@
+/*
+ *  ImageHashCatalog.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image.hash;
+
+import io.nut.headless.image.RasterPool;
+import io.nut.headless.imageio.ImageFormat;
+import io.nut.headless.imageio.ImageStrips;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * On disk catalog of image hashes, so unchanged images are not decoded again.
+ * <p>
+ * Every image is a fixed size record of a memory mapped file holding its path key,
+ * modification time, size, dimensions, a 64 bit difference hash and the SHA-256 of its
+ * pixels; paths are appended to a second file named as the catalog plus ".names".
+ * The file is mapped and indexed by path on first use. Records are updated in place,
+ * new ones are appended and removed ones are only marked, so updates are incremental.
+ * Near duplicates are found by hamming distance between difference hashes without
+ * decoding any image. A single mapping limits the catalog to (Integer.MAX_VALUE-64)/96
+ * records, about 22 million images.
+ *
+ * @author franci
+ */
+public class ImageHashCatalog implements Closeable
+{
+    private static final long MAGIC = 0x4e55544948433031L; // "NUTIHC01"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int RECORD = 96;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER) / RECORD;
+
+    // header offsets
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_RECORD = 12;
+    private static final int H_COUNT = 16;
+    private static final int H_NAMES = 24;
+
+    // record offsets
+    private static final int R_KEY = 0;
+    private static final int R_NAME = 8;
+    private static final int R_NAME_LENGTH = 16;
+    private static final int R_FLAGS = 20;
+    private static final int R_MODIFIED = 24;
+    private static final int R_SIZE = 32;
+    private static final int R_WIDTH = 40;
+    private static final int R_HEIGHT = 44;
+    private static final int R_PHASH = 48;
+    private static final int R_DIGEST = 56;
+    private static final int DIGEST_SIZE = 32;
+
+    private static final int LIVE = 1;
+
+    public static final class Entry
+    {
+        private final String path;
+        private final long modified;
+        private final long size;
+        private final int width;
+        private final int height;
+        private final long phash;
+        private final byte[] digest;
+
+        public Entry(String path, long modified, long size, int width, int height, long phash, byte[] digest)
+        {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.width = width;
+            this.height = height;
+            this.phash = phash;
+            this.digest = digest;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public long getModified()
+        {
+            return modified;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public int getWidth()
+        {
+            return width;
+        }
+
+        public int getHeight()
+        {
+            return height;
+        }
+
+        public long getPHash()
+        {
+            return phash;
+        }
+
+        public byte[] getDigest()
+        {
+            return digest.clone();
+        }
+
+        @Override
+        public String toString()
+        {
+            return path + " [" + width + "x" + height + "] " + Long.toHexString(phash);
+        }
+    }
+
+    private final File file;
+    private final File namesFile;
+    private final ImageHashBuilder exact = new ImageHashBuilder(false, 0, 0, 0);
+
+    private FileChannel channel;
+    private FileChannel names;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int count;
+    private long namesLength;
+    // path key to record, paths whose key is already taken go to collisions
+    private HashMap<Long, Integer> index;
+    private HashMap<String, Integer> collisions;
+
+    public ImageHashCatalog(File file)
+    {
+        this.file = file;
+        this.namesFile = new File(file.getPath() + ".names");
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Number of images in the catalog.
+     */
+    public synchronized int size() throws IOException
+    {
+        open();
+        return index.size() + collisions.size();
+    }
+
+    public synchronized Entry get(File image) throws IOException
+    {
+        open();
+        int i = find(image.getAbsolutePath());
+        return i<0 ? null : entry(i);
+    }
+
+    /**
+     * Whether image is in the catalog with its current modification time and size.
+     */
+    public synchronized boolean isCurrent(File image) throws IOException
+    {
+        open();
+        int i = find(image.getAbsolutePath());
+        return i>=0 && isCurrent(i, image);
+    }
+
+    /**
+     * Returns the entry of image, decoding and hashing it only when it is new or it
+     * has changed since it was cataloged.
+     */
+    public Entry update(File image) throws IOException
+    {
+        synchronized(this)
+        {
+            open();
+            int i = find(image.getAbsolutePath());
+            if(i>=0 && isCurrent(i, image))
+            {
+                return entry(i);
+            }
+        }
+        Entry entry = hash(image);
+        put(entry);
+        return entry;
+    }
+
+    public synchronized void put(Entry entry) throws IOException
+    {
+        open();
+        int i = find(entry.path);
+        if(i<0)
+        {
+            i = append(entry.path);
+        }
+        final int off = offset(i);
+        map.putLong(off+R_MODIFIED, entry.modified);
+        map.putLong(off+R_SIZE, entry.size);
+        map.putInt(off+R_WIDTH, entry.width);
+        map.putInt(off+R_HEIGHT, entry.height);
+        map.putLong(off+R_PHASH, entry.phash);
+        map.put(off+R_DIGEST, Arrays.copyOf(entry.digest, DIGEST_SIZE));
+        map.putInt(off+R_FLAGS, LIVE);
+    }
+
+    public synchronized boolean remove(File image) throws IOException
+    {
+        open();
+        return remove(image.getAbsolutePath());
+    }
+
+    /**
+     * Removes the entries whose files no longer exist.
+     * @return the number of removed entries
+     */
+    public synchronized int prune() throws IOException
+    {
+        open();
+        int removed = 0;
+        for(int i=0;i<count;i++)
+        {
+            if(isLive(i))
+            {
+                String path = name(i);
+                if(!new File(path).exists() && remove(path))
+                {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    public static int distance(long a, long b)
+    {
+        return Long.bitCount(a^b);
+    }
+
+    /**
+     * Entries whose difference hash is within maxDistance bits of phash.
+     */
+    public synchronized List<Entry> findNear(long phash, int maxDistance) throws IOException
+    {
+        open();
+        ArrayList<Entry> list = new ArrayList<>();
+        for(int i=0;i<count;i++)
+        {
+            if(isLive(i) && distance(phash, map.getLong(offset(i)+R_PHASH))<=maxDistance)
+            {
+                list.add(entry(i));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Groups of two or more entries linked by difference hashes within maxDistance bits.
+     * Hashes are split in more than maxDistance bands, two hashes that close must share
+     * one of them, so only entries with a common band are compared.
+     * @param maxDistance between 0 and 63, 64 bit hashes can't have more bands
+     */
+    public synchronized List<List<Entry>> findDuplicates(int maxDistance) throws IOException
+    {
+        if(maxDistance<0 || maxDistance>63)
+        {
+            throw new IllegalArgumentException("maxDistance must be between 0 and 63: "+maxDistance);
+        }
+        open();
+        final int[] records = new int[count];
+        final long[] hashes = new long[count];
+        int n = 0;
+        for(int i=0;i<count;i++)
+        {
+            if(isLive(i))
+            {
+                records[n] = i;
+                hashes[n++] = map.getLong(offset(i)+R_PHASH);
+            }
+        }
+        final int[] parent = new int[n];
+        for(int i=0;i<n;i++)
+        {
+            parent[i] = i;
+        }
+        final int bands = Math.min(64, Math.max(2, maxDistance+1));
+        final long[] keys = new long[n];
+        for(int b=0, from=0;b<bands;b++)
+        {
+            final int to = 64*(b+1)/bands;
+            final long mask = (to-from==64) ? -1L : ((1L<<(to-from))-1) << from;
+            for(int i=0;i<n;i++)
+            {
+                // band bits over the position, at most 32 bits each
+                keys[i] = (((hashes[i] & mask) >>> from) << 32) | i;
+            }
+            Arrays.sort(keys, 0, n);
+            for(int start=0, end;start<n;start=end)
+            {
+                final long band = keys[start]>>>32;
+                for(end=start+1;end<n && (keys[end]>>>32)==band;end++);
+                for(int x=start;x<end;x++)
+                {
+                    for(int y=x+1;y<end;y++)
+                    {
+                        final int i = (int) keys[x];
+                        final int j = (int) keys[y];
+                        if(distance(hashes[i], hashes[j])<=maxDistance)
+                        {
+                            union(parent, i, j);
+                        }
+                    }
+                }
+            }
+            from = to;
+        }
+        // union keeps the lowest index as root, so it comes before its members
+        HashMap<Integer, List<Entry>> groups = new HashMap<>();
+        for(int i=0;i<n;i++)
+        {
+            final int root = root(parent, i);
+            if(root!=i)
+            {
+                List<Entry> group = groups.get(root);
+                if(group==null)
+                {
+                    group = new ArrayList<>();
+                    group.add(entry(records[root]));
+                    groups.put(root, group);
+                }
+                group.add(entry(records[i]));
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Writes the mapped records and the names to disk.
+     */
+    public synchronized void flush() throws IOException
+    {
+        if(map!=null)
+        {
+            names.force(false);
+            map.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if(map!=null)
+        {
+            flush();
+            map = null;
+            index = null;
+            collisions = null;
+            try
+            {
+                names.close();
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+
+    private void open() throws IOException
+    {
+        if(map!=null)
+        {
+            return;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        names = FileChannel.open(namesFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            final long length = channel.size();
+            if(length==0)
+            {
+                capacity = INITIAL_CAPACITY;
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)capacity*RECORD);
+                map.putLong(H_MAGIC, MAGIC);
+                map.putInt(H_VERSION, VERSION);
+                map.putInt(H_RECORD, RECORD);
+                count = 0;
+                namesLength = 0;
+                writeHeader();
+            }
+            else
+            {
+                capacity = (int) Math.max(INITIAL_CAPACITY, (length-HEADER)/RECORD);
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)capacity*RECORD);
+                if(map.getLong(H_MAGIC)!=MAGIC || map.getInt(H_VERSION)!=VERSION || map.getInt(H_RECORD)!=RECORD)
+                {
+                    throw new IOException("not an image hash catalog "+file);
+                }
+                count = map.getInt(H_COUNT);
+                namesLength = map.getLong(H_NAMES);
+            }
+            // drops names appended after the last record was committed
+            names.truncate(namesLength);
+            index = new HashMap<>(Math.max(16, count*4/3));
+            collisions = new HashMap<>();
+            for(int i=0;i<count;i++)
+            {
+                if(isLive(i))
+                {
+                    link(map.getLong(offset(i)+R_KEY), i);
+                }
+            }
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            map = null;
+            names.close();
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private Entry hash(File image) throws IOException
+    {
+        final long modified = image.lastModified();
+        final long size = image.length();
+        ImageInputStream iis = ImageIO.createImageInputStream(image);
+        if(iis==null)
+        {
+            throw new IOException("can't create an ImageInputStream "+image);
+        }
+        BufferedImage decoded;
+        try
+        {
+            ImageReader reader = ImageFormat.getReader(iis);
+            if(reader==null)
+            {
+                throw new IOException("unsupported image format "+image);
+            }
+            try
+            {
+                decoded = ImageStrips.read(reader, RasterPool.getShared());
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        finally
+        {
+            iis.close();
+        }
+        try
+        {
+            ImageHash hash = (ImageHash) exact.buildHash(decoded);
+            long phash = ImageHashBuilder.buildDHash(decoded);
+            return new Entry(image.getAbsolutePath(), modified, size, hash.getWidth(), hash.getHeight(), phash, hash.getBytes());
+        }
+        finally
+        {
+            RasterPool.getShared().giveBack(decoded);
+        }
+    }
+
+    private boolean isCurrent(int i, File image)
+    {
+        final int off = offset(i);
+        return map.getLong(off+R_MODIFIED)==image.lastModified() && map.getLong(off+R_SIZE)==image.length();
+    }
+
+    private int find(String path) throws IOException
+    {
+        Integer i = index.get(key(path));
+        if(i==null)
+        {
+            return -1;
+        }
+        if(name(i).equals(path))
+        {
+            return i;
+        }
+        i = collisions.get(path);
+        return i==null ? -1 : i;
+    }
+
+    private void link(long key, int i) throws IOException
+    {
+        if(index.putIfAbsent(key, i)!=null)
+        {
+            collisions.put(name(i), i);
+        }
+    }
+
+    private boolean remove(String path) throws IOException
+    {
+        int i = find(path);
+        if(i<0)
+        {
+            return false;
+        }
+        map.putInt(offset(i)+R_FLAGS, 0);
+        if(collisions.remove(path)==null)
+        {
+            long key = key(path);
+            index.remove(key);
+            // a colliding path takes the free key
+            for(String other : collisions.keySet())
+            {
+                if(key(other)==key)
+                {
+                    index.put(key, collisions.remove(other));
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int append(String path) throws IOException
+    {
+        if(count==capacity)
+        {
+            if(capacity>=MAX_CAPACITY)
+            {
+                throw new IOException("catalog full "+file);
+            }
+            capacity = (int) Math.min(MAX_CAPACITY, 2L*capacity);
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)capacity*RECORD);
+        }
+        final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer src = ByteBuffer.wrap(bytes);
+        for(long pos=namesLength; src.hasRemaining(); pos+=names.write(src, pos));
+        final int i = count;
+        final int off = offset(i);
+        final long key = key(path);
+        map.putLong(off+R_KEY, key);
+        map.putLong(off+R_NAME, namesLength);
+        map.putInt(off+R_NAME_LENGTH, bytes.length);
+        map.putInt(off+R_FLAGS, 0);
+        namesLength += bytes.length;
+        count++;
+        writeHeader();
+        link(key, i);
+        return i;
+    }
+
+    private void writeHeader()
+    {
+        map.putInt(H_COUNT, count);
+        map.putLong(H_NAMES, namesLength);
+    }
+
+    private Entry entry(int i) throws IOException
+    {
+        final int off = offset(i);
+        byte[] digest = new byte[DIGEST_SIZE];
+        map.get(off+R_DIGEST, digest);
+        return new Entry(name(i), map.getLong(off+R_MODIFIED), map.getLong(off+R_SIZE), map.getInt(off+R_WIDTH), map.getInt(off+R_HEIGHT), map.getLong(off+R_PHASH), digest);
+    }
+
+    private String name(int i) throws IOException
+    {
+        final int off = offset(i);
+        final ByteBuffer dst = ByteBuffer.allocate(map.getInt(off+R_NAME_LENGTH));
+        for(long pos=map.getLong(off+R_NAME); dst.hasRemaining(); )
+        {
+            int n = names.read(dst, pos);
+            if(n<0)
+            {
+                throw new IOException("truncated names file "+namesFile);
+            }
+            pos += n;
+        }
+        return new String(dst.array(), StandardCharsets.UTF_8);
+    }
+
+    private boolean isLive(int i)
+    {
+        return map.getInt(offset(i)+R_FLAGS)==LIVE;
+    }
+
+    private static int offset(int i)
+    {
+        return HEADER + i*RECORD;
+    }
+
+    // 64 bit FNV-1a of the path chars
+    private static long key(String path)
+    {
+        long h = 0xcbf29ce484222325L;
+        for(int i=0;i<path.length();i++)
+        {
+            h ^= path.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static int root(int[] parent, int i)
+    {
+        while(parent[i]!=i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j)
+    {
+        int a = root(parent, i);
+        int b = root(parent, j);
+        if(a!=b)
+        {
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  ImageHashEvent.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image.hash;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of ImageHashBuilder hashing an image, disabled by default.
+ *
+ * @author franci
+ */
+@Name("io.nut.headless.ImageHash")
+@Label("Image Hash")
+@Category({"Nut", "Image"})
+@Description("An image decoded, scaled and hashed by ImageHashBuilder")
+@Enabled(false)
+@StackTrace(false)
+final class ImageHashEvent extends jdk.jfr.Event
+{
+    @Label("Path")
+    String path;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Tiled")
+    boolean tiled;
+
+    @Label("Decode Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long decode;
+
+    @Label("Scale Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long scale;
+}
@@ -22,6 +22,7 @@ package io.nut.headless.image.hash;
 
 import java.util.ArrayList;
 import io.nut.base.util.Hash;
+import io.nut.headless.image.PixelKernels;
 
 /**
  *
@@ -30,6 +31,7 @@ import io.nut.base.util.Hash;
 public class StickyImageHash implements Hash
 {
     static private final Object lock = new Object();
+    static private final PixelKernels kernels = PixelKernels.get();
     private final int w;
     private final int h;
     private final int hc;
@@ -84,18 +86,7 @@ public class StickyImageHash implements Hash
                     {
                         return true;
                     }
-                    int count = 0;
-                    for(int i=0;i<thisItem.length && count<=countThreshold;i++)
-                    {
-                        int thisColor = thisItem[i]>=0?thisItem[i]:thisItem[i]+256;
-                        int otherColor= otherItem[i]>=0?otherItem[i]:otherItem[i]+256;
-                        int colorDiff = thisColor-otherColor;
-                        colorDiff = Math.max(colorDiff,-colorDiff);
-                        if(colorDiff>colorThreshold)
-                        {
-                            count++;
-                        }
-                    }
+                    int count = kernels.countDiffs(thisItem, otherItem, thisItem.length, colorThreshold, countThreshold);
                     if(count<countThreshold)
                     {
                         this.hash = merge(this.hash,other.hash);
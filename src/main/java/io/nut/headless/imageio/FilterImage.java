@@ -21,20 +21,16 @@
  */
 package io.nut.headless.imageio;
 
+import io.nut.headless.image.ImagePipeline;
+import io.nut.headless.image.ImageScaler;
+import io.nut.headless.image.RasterPool;
 import io.nut.headless.image.ScaleDimension;
 import io.nut.headless.image.SimpleScaleDimension;
+import io.nut.headless.image.StripScaler;
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.color.ColorSpace;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorConvertOp;
-import java.awt.image.ColorModel;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -43,24 +39,42 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /**
+ * Decodes, runs an ImagePipeline and encodes images.
  *
  * @author franci
  */
 public class FilterImage
 {
-    private final ConvolveOp blurOp = new ConvolveOp(new Kernel(3, 3, new float[] { 0.1111f, 0.1111f, 0.1111f,0.1111f, .1111f, .1111f,0.1111f, 0.1111f, 0.1111f }));
-    private final ScaleDimension scale;
-    private final boolean gray;
+    private final ImagePipeline pipeline;
+    private final ImagePipeline tail;
     private final boolean nop;
+    private volatile float quality = ImageEncoder.DEFAULT_QUALITY;
+
+    public FilterImage(ImagePipeline pipeline)
+    {
+        this.pipeline = pipeline;
+        this.tail = pipeline.getTail();
+        this.nop = pipeline.isEmpty();
+    }
+
+    /**
+     * @param algorithm one of ImageScaler.AUTO, BICUBIC, PROGRESSIVE, AREA or LANCZOS
+     */
+    public FilterImage(ScaleDimension scale, boolean gray, int algorithm)
+    {
+        this(buildPipeline(scale, gray, algorithm));
+    }
 
     public FilterImage(ScaleDimension scale, boolean gray)
     {
-        this.scale = scale;
-        this.gray  = gray;
-        this.nop   = (scale==null) && !gray;
+        this(scale, gray, ImageScaler.AUTO);
     }
 
     public FilterImage(ScaleDimension scale)
@@ -80,34 +94,55 @@ public class FilterImage
     {
         this(maxWidth,maxHeight,false);
     }
+
+    static ImagePipeline buildPipeline(ScaleDimension scale, boolean gray, int algorithm)
+    {
+        ImagePipeline pipeline = new ImagePipeline().scale(scale, algorithm);
+        return gray ? pipeline.gray() : pipeline;
+    }
+
+    public ImagePipeline getPipeline()
+    {
+        return pipeline;
+    }
     
+    public float getQuality()
+    {
+        return quality;
+    }
+
+    /**
+     * @param quality compression quality between 0.0 and 1.0, negative means writer default
+     */
+    public void setQuality(float quality)
+    {
+        this.quality = quality;
+    }
+
+    /**
+     * @return true if the image was transformed, false if it was copied as is
+     * @throws IOException if the image can't be encoded as format, no output file is left
+     */
     public boolean filter(File inputImage, File outputImage, String format) throws Exception
     {
         InputStream in = new FileInputStream(inputImage);
         try
         {
-            InputStream in2 = filter(in, format);
+            boolean done = false;
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(outputImage), 64 * 1024);
             try
             {
-                OutputStream out = new FileOutputStream(outputImage);
-                try
-                {
-                    byte buf[] = new byte[64 * 1024];
-                    int r;
-                    while ((r = in2.read(buf)) > 0)
-                    {
-                        out.write(buf, 0, r);
-                    }
-                }
-                finally
-                {
-                    out.close();
-                }
-                return (in!=in2);
+                final boolean transformed = filter(in, out, format);
+                done = true;
+                return transformed;
             }
             finally
             {
-                in2.close();
+                out.close();
+                if(!done)
+                {
+                    outputImage.delete();
+                }
             }
         }
         finally
@@ -134,64 +169,101 @@ public class FilterImage
         {
             return imageStream;
         }
-        
-        BufferedImage image = ImageIO.read(new BufferedInputStream(imageStream));
-        image = filter(image);
-
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ImageIO.write(image, format, out);
-        
+        filter(imageStream, out, format);
         return new ByteArrayInputStream(out.toByteArray());
     }
 
-    public BufferedImage filter(BufferedImage img)
+    /**
+     * Encodes the filtered image straight into out, out is not closed.
+     * @return true if the image was transformed, false if it was copied as is
+     * @throws IOException if no writer can encode the image as format, then nothing is written
+     */
+    public boolean filter(InputStream imageStream, OutputStream out, String format) throws IOException
     {
         if(nop)
         {
-            return img;
+            imageStream.transferTo(out);
+            out.flush();
+            return false;
         }
-
-        // Make sure the aspect ratio is maintained, so the image is not skewed
-        Dimension size  = new Dimension(img.getWidth(),img.getHeight());
-        Dimension resize= (scale==null)?null:scale.convert(size);
-        if(resize==null)
+        ImageInputStream iis = ImageIO.createImageInputStream(new BufferedInputStream(imageStream));
+        if(iis==null)
         {
-            resize = size;
+            throw new IOException("can't create an ImageInputStream");
         }
-
-        if(!resize.equals(size) || gray)
+        try
+        {
+            ImageReader reader = ImageFormat.getReader(iis);
+            if(reader==null)
+            {
+                throw new IOException("unsupported image format");
+            }
+            BufferedImage filtered;
+            try
+            {
+                filtered = filter(reader);
+            }
+            finally
+            {
+                reader.dispose();
+            }
+            final boolean written = new ImageEncoder(format, quality).write(filtered, out);
+            RasterPool.getShared().giveBack(filtered);
+            if(!written)
+            {
+                throw new IOException("can't encode the image as "+format);
+            }
+            return true;
+        }
+        finally
         {
-            img = scaleByGraphics2D(img,resize.width, resize.height, gray);
+            iis.close();
         }
-        return img;
     }
 
-    private static BufferedImage scaleByAffine(BufferedImage img, int w, int h)
+    /**
+     * Encodes the filtered image straight into the channel, the channel is not closed.
+     */
+    public boolean filter(InputStream imageStream, WritableByteChannel out, String format) throws IOException
     {
-        double sx = ((double) w) / ((double) img.getWidth());
-        double sy = ((double) h) / ((double) img.getHeight());
-
-        AffineTransform ops = new AffineTransform();
-        ops.scale(sx, sy);
-
-        AffineTransformOp op = new AffineTransformOp(ops, AffineTransformOp.TYPE_BICUBIC);       
-        return op.filter(img, op.createCompatibleDestImage(img, ColorModel.getRGBdefault()));
+        return filter(imageStream, Channels.newOutputStream(out), format);
     }
-    private static BufferedImage scaleByGraphics2D(BufferedImage img, int w, int h, boolean gray)
+
+    /**
+     * Decodes and filters the first image of reader. Images above ImageStrips.getTiledPixels()
+     * whose pipeline starts reducing them are scaled by strips, so the whole raster is never
+     * in memory.
+     */
+    public BufferedImage filter(ImageReader reader) throws IOException
     {
-        BufferedImage scaledImage = new BufferedImage(w, h, gray?BufferedImage.TYPE_BYTE_GRAY:BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics2D = scaledImage.createGraphics();
-        graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        graphics2D.drawImage(img, 0, 0, w, h, null);
-        return scaledImage;
+        Dimension size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+        ScaleDimension scale = pipeline.getLeadingScale();
+        Dimension resize = (scale==null) ? null : scale.convert(size);
+        if(resize==null || !ImageStrips.isTiled(size.width, size.height) || resize.width>=size.width || resize.height>=size.height)
+        {
+            BufferedImage image = ImageStrips.read(reader, RasterPool.getShared());
+            BufferedImage filtered = filter(image);
+            if(filtered!=image)
+            {
+                RasterPool.getShared().giveBack(image);
+            }
+            return filtered;
+        }
+        // subsampling still leaves at least two source pixels per destination pixel to average
+        int subsampling = Math.max(1, Math.min(size.width/resize.width, size.height/resize.height)/2);
+        ImageStrips strips = new ImageStrips(reader, subsampling);
+        StripScaler scaler = new StripScaler(strips.getWidth(), strips.getHeight(), resize.width, resize.height);
+        while(strips.hasNext())
+        {
+            BufferedImage strip = strips.next();
+            scaler.add(strip, strips.getY(), strips.getRows());
+        }
+        return tail.filter(scaler.getImage());
     }
-    
-    private static BufferedImage grayScale(BufferedImage img)
+
+    public BufferedImage filter(BufferedImage img)
     {
-        ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_GRAY);
-        ColorConvertOp op = new ColorConvertOp(cs, null);
-        return op.filter(img, null);
+        return pipeline.filter(img);
     }
-    
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+/*
+ *  ImageEncoder.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.imageio;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes straight to the destination stream with explicit compression
+ * params, ImageIO.write uses the writer defaults and may cache on disk.
+ *
+ * @author franci
+ */
+public class ImageEncoder
+{
+    public static final float DEFAULT_QUALITY = -1f;
+
+    private final String format;
+    private final float quality;
+    private final boolean progressive;
+
+    /**
+     * @param format informal format name as in ImageIO, ie. "jpeg" or "png"
+     * @param quality compression quality between 0.0 and 1.0, negative means writer default
+     * @param progressive progressive encoding when the writer supports it
+     */
+    public ImageEncoder(String format, float quality, boolean progressive)
+    {
+        this.format = format;
+        this.quality = Math.min(quality, 1f);
+        this.progressive = progressive;
+    }
+
+    public ImageEncoder(String format, float quality)
+    {
+        this(format, quality, false);
+    }
+
+    public ImageEncoder(String format)
+    {
+        this(format, DEFAULT_QUALITY, false);
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public float getQuality()
+    {
+        return quality;
+    }
+
+    /**
+     * Writes the image to out, out is flushed but not closed.
+     * @return false if no writer for the format can encode the image, then nothing is written,
+     * like ImageIO.write
+     */
+    public boolean write(BufferedImage image, OutputStream out) throws IOException
+    {
+        ImageWriter writer = getWriter(image);
+        if(writer==null)
+        {
+            return false;
+        }
+        try
+        {
+            ImageOutputStream ios = new MemoryCacheImageOutputStream(out);
+            try
+            {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(image, null, null), buildParam(writer));
+                ios.flush();
+            }
+            finally
+            {
+                ios.close();
+            }
+        }
+        finally
+        {
+            writer.dispose();
+        }
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Writes the image to the channel, the channel is not closed.
+     */
+    public boolean write(BufferedImage image, WritableByteChannel out) throws IOException
+    {
+        // Channels.newOutputStream does not buffer and its close would close the channel
+        return write(image, Channels.newOutputStream(out));
+    }
+
+    // the first writer able to encode the image, ie. jpeg writers refuse images with alpha
+    private ImageWriter getWriter(BufferedImage image)
+    {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        while(writers.hasNext())
+        {
+            ImageWriter writer = writers.next();
+            ImageWriterSpi provider = writer.getOriginatingProvider();
+            if(provider==null || provider.canEncodeImage(image))
+            {
+                return writer;
+            }
+        }
+        return null;
+    }
+
+    private ImageWriteParam buildParam(ImageWriter writer)
+    {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if(quality>=0 && param.canWriteCompressed())
+        {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            String[] types = param.getCompressionTypes();
+            if(param.getCompressionType()==null && types!=null && types.length>0)
+            {
+                param.setCompressionType(types[0]);
+            }
+            param.setCompressionQuality(quality);
+        }
+        if(param.canWriteProgressive())
+        {
+            param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        }
+        return param;
+    }
+}
@@ -23,8 +23,24 @@ package io.nut.headless.imageio;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
 
 /**
+ * Image formats by file extension or by the magic bytes at the start of the content.
+ * Readers for detected formats are created straight from a cached ImageReaderSpi,
+ * without probing every registered reader.
  *
  * @author franci
  */
@@ -35,6 +51,15 @@ public class ImageFormat
     public static final String PNG = "png";
     public static final String JPEG = "jpeg";
     public static final String GIF = "gif";
+    public static final String TIFF = "tiff";
+    public static final String WEBP = "webp";
+    public static final String HEIF = "heif";
+
+    /**
+     * Bytes needed by detect to recognize every format.
+     */
+    public static final int MAGIC_SIZE = 16;
+
     private static final String[][] EXT_FMT =
     {
         {".bmp", BMP},
@@ -42,33 +67,226 @@ public class ImageFormat
         {".jpg", JPEG},
         {".jpeg", JPEG},
         {".gif", GIF},
+        {".tif", TIFF},
+        {".tiff", TIFF},
+        {".webp", WEBP},
+        {".heic", HEIF},
+        {".heif", HEIF},
     };
+    private static final HashMap<String,String> FORMATS = new HashMap<>();
+    static
+    {
+        for (String[] item : EXT_FMT)
+        {
+            FORMATS.put(item[0].substring(1), item[1]);
+        }
+    }
+    private static final String[] HEIF_BRANDS = {"heic", "heix", "hevc", "hevx", "heim", "heis", "hevm", "hevs", "mif1", "msf1"};
+
+    // formats without reader are cached as empty, so they are not looked up again for every file
+    private static final ConcurrentHashMap<String, Optional<ImageReaderSpi>> spis = new ConcurrentHashMap<>();
 
     public static String getFormat(String fileName)
     {
-        String name = fileName.toLowerCase();
-        for (String[] item : EXT_FMT)
+        int dot = fileName.lastIndexOf('.');
+        return dot<0 ? null : FORMATS.get(fileName.substring(dot+1).toLowerCase(Locale.ROOT));
+    }
+
+    public static String getFormat(File file)
+    {
+        return getFormat(file.getName());
+    }
+
+    /**
+     * Detects the format from the first bytes of an image, at least MAGIC_SIZE are
+     * needed to recognize every format.
+     * @return the format or null if it is not recognized
+     */
+    public static String detect(byte[] head, int len)
+    {
+        if(startsWith(head, len, 0, 0xFF, 0xD8, 0xFF))
+        {
+            return JPEG;
+        }
+        if(startsWith(head, len, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A))
+        {
+            return PNG;
+        }
+        if(startsWith(head, len, 0, 'G', 'I', 'F', '8') && len>=6 && (head[4]=='7' || head[4]=='9') && head[5]=='a')
         {
-            if (name.endsWith(item[0]))
+            return GIF;
+        }
+        if(startsWith(head, len, 0, 'R', 'I', 'F', 'F') && startsWith(head, len, 8, 'W', 'E', 'B', 'P'))
+        {
+            return WEBP;
+        }
+        if(startsWith(head, len, 0, 'I', 'I', 0x2A, 0x00) || startsWith(head, len, 0, 'M', 'M', 0x00, 0x2A)
+        || startsWith(head, len, 0, 'I', 'I', 0x2B, 0x00) || startsWith(head, len, 0, 'M', 'M', 0x00, 0x2B))
+        {
+            return TIFF;
+        }
+        if(startsWith(head, len, 4, 'f', 't', 'y', 'p') && len>=12)
+        {
+            String brand = new String(head, 8, 4, StandardCharsets.US_ASCII);
+            for(String item : HEIF_BRANDS)
             {
-                return item[1];
+                if(item.equals(brand))
+                {
+                    return HEIF;
+                }
             }
         }
+        if(startsWith(head, len, 0, 'B', 'M') && len>=14)
+        {
+            return BMP;
+        }
         return null;
     }
 
-    public static String getFormat(File file)
+    /**
+     * Detects the format of iis, its position is left unchanged.
+     */
+    public static String detect(ImageInputStream iis) throws IOException
     {
-        return getFormat(file.getName());
+        byte[] head = new byte[MAGIC_SIZE];
+        iis.mark();
+        try
+        {
+            int len = 0;
+            for(int n; len<head.length && (n=iis.read(head, len, head.length-len))>0; len+=n);
+            return detect(head, len);
+        }
+        finally
+        {
+            iis.reset();
+        }
+    }
+
+    /**
+     * Detects the format of file from its content, so misnamed files are recognized.
+     */
+    public static String detect(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] head = in.readNBytes(MAGIC_SIZE);
+            return detect(head, head.length);
+        }
+        finally
+        {
+            in.close();
+        }
     }
+
+    /**
+     * The cached provider of readers for format, or null if none is registered. Both are
+     * cached, so plugins must be registered before the first lookup of their formats.
+     */
+    public static ImageReaderSpi getReaderSpi(String format)
+    {
+        if(format==null)
+        {
+            return null;
+        }
+        Optional<ImageReaderSpi> spi = spis.get(format);
+        if(spi==null)
+        {
+            spi = Optional.empty();
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format);
+            if(readers.hasNext())
+            {
+                ImageReader reader = readers.next();
+                spi = Optional.ofNullable(reader.getOriginatingProvider());
+                reader.dispose();
+            }
+            spis.put(format, spi);
+        }
+        return spi.orElse(null);
+    }
+
+    /**
+     * Whether there is a registered reader for format.
+     */
+    public static boolean isReadable(String format)
+    {
+        return getReaderSpi(format)!=null;
+    }
+
+    /**
+     * Returns a reader for iis with its input already set, or null if none can decode it.
+     * Formats recognized by their magic bytes go straight to the reader of their cached
+     * ImageReaderSpi, other ones are probed by ImageIO.
+     */
+    public static ImageReader getReader(ImageInputStream iis) throws IOException
+    {
+        ImageReaderSpi spi = getReaderSpi(detect(iis));
+        ImageReader reader = null;
+        if(spi!=null)
+        {
+            reader = spi.createReaderInstance();
+        }
+        else
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            reader = readers.hasNext() ? readers.next() : null;
+        }
+        if(reader!=null)
+        {
+            reader.setInput(iis, true, true);
+        }
+        return reader;
+    }
+
+    /**
+     * Accepts files whose extension is a readable format.
+     */
     public static FileFilter getImageFileFilter()
     {
         return new FileFilter()
         {
             public boolean accept(File pathname)
             {
-                return (getFormat(pathname)!=null);
+                return isReadable(getFormat(pathname));
+            }
+        };
+    }
+
+    /**
+     * Accepts files whose content is a readable format, whatever their name. Each file is
+     * opened to read its first bytes.
+     */
+    public static FileFilter getContentFileFilter()
+    {
+        return new FileFilter()
+        {
+            public boolean accept(File pathname)
+            {
+                try
+                {
+                    return pathname.isFile() && isReadable(detect(pathname));
+                }
+                catch(IOException ex)
+                {
+                    return false;
+                }
             }
         };
     }
+
+    private static boolean startsWith(byte[] head, int len, int offset, int... magic)
+    {
+        if(len<offset+magic.length)
+        {
+            return false;
+        }
+        for(int i=0;i<magic.length;i++)
+        {
+            if((head[offset+i]&0xff)!=magic[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ *  ImageStrips.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.imageio;
+
+import io.nut.headless.image.RasterPool;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+
+/**
+ * Reads an image as a sequence of full width row strips using source regions, so
+ * only one strip is in memory whatever the image size. The strip image is reused,
+ * only the first getRows() rows of the last strip returned by next() are valid.
+ *
+ * @author franci
+ */
+public class ImageStrips
+{
+    //images above this number of pixels are processed by strips
+    private static volatile long tiledPixels = 64L*1024*1024;
+    //memory used by a strip
+    private static volatile int stripBytes = 16*1024*1024;
+
+    private final ImageReader reader;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int subsampling;
+    private final int stripHeight;
+    private final ImageReadParam param;
+    private BufferedImage strip;
+    private int y = 0;
+    private int stripY = 0;
+    private int rows = 0;
+
+    /**
+     * @param reader reader with its input already set, it is not disposed
+     * @param subsampling read one of every subsampling rows and columns
+     */
+    public ImageStrips(ImageReader reader, int subsampling) throws IOException
+    {
+        this.reader = reader;
+        this.sourceWidth = reader.getWidth(0);
+        this.sourceHeight = reader.getHeight(0);
+        this.subsampling = Math.max(1, subsampling);
+        int rowsPerStrip = Math.max(1, stripBytes / (4 * Math.max(1, sourceWidth / this.subsampling)));
+        this.stripHeight = rowsPerStrip * this.subsampling;
+        this.param = reader.getDefaultReadParam();
+        this.param.setSourceSubsampling(this.subsampling, this.subsampling, 0, 0);
+    }
+
+    public ImageStrips(ImageReader reader) throws IOException
+    {
+        this(reader, 1);
+    }
+
+    /**
+     * Width of the strips, after subsampling.
+     */
+    public int getWidth()
+    {
+        return (sourceWidth + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * Height of the whole image, after subsampling.
+     */
+    public int getHeight()
+    {
+        return (sourceHeight + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * First row of the last strip, after subsampling.
+     */
+    public int getY()
+    {
+        return stripY;
+    }
+
+    /**
+     * Valid rows of the last strip.
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public boolean hasNext()
+    {
+        return y < sourceHeight;
+    }
+
+    public BufferedImage next() throws IOException
+    {
+        if(!hasNext())
+        {
+            return null;
+        }
+        final int h = Math.min(stripHeight, sourceHeight - y);
+        param.setSourceRegion(new Rectangle(0, y, sourceWidth, h));
+        if(strip==null)
+        {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if(types.hasNext())
+            {
+                strip = types.next().createBufferedImage(getWidth(), stripHeight / subsampling);
+            }
+        }
+        param.setDestination(strip);
+        BufferedImage read = reader.read(0, param);
+        if(strip==null)
+        {
+            strip = read;
+        }
+        stripY = y / subsampling;
+        rows = (h + subsampling - 1) / subsampling;
+        y += h;
+        return read;
+    }
+
+    /**
+     * Whether an image of w x h pixels should be processed by strips.
+     */
+    public static boolean isTiled(int w, int h)
+    {
+        return (long)w*h > tiledPixels;
+    }
+
+    public static long getTiledPixels()
+    {
+        return tiledPixels;
+    }
+
+    public static void setTiledPixels(long tiledPixels)
+    {
+        ImageStrips.tiledPixels = tiledPixels;
+    }
+
+    public static int getStripBytes()
+    {
+        return stripBytes;
+    }
+
+    public static void setStripBytes(int stripBytes)
+    {
+        ImageStrips.stripBytes = stripBytes;
+    }
+
+    /**
+     * Decodes the first image of reader into a destination borrowed from pool, so it can
+     * be given back once used. Types whose color model is not the standard one for their
+     * BufferedImage type, like indexed images, are decoded into a new image.
+     */
+    public static BufferedImage read(ImageReader reader, RasterPool pool) throws IOException
+    {
+        ImageReadParam param = reader.getDefaultReadParam();
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if(types!=null && types.hasNext())
+        {
+            final int type = types.next().getBufferedImageType();
+            switch(type)
+            {
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_ARGB:
+                case BufferedImage.TYPE_INT_BGR:
+                case BufferedImage.TYPE_3BYTE_BGR:
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                case BufferedImage.TYPE_BYTE_GRAY:
+                case BufferedImage.TYPE_USHORT_GRAY:
+                    param.setDestination(pool.borrowImage(reader.getWidth(0), reader.getHeight(0), type));
+            }
+        }
+        return reader.read(0, param);
+    }
+}
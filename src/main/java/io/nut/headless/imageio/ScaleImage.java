@@ -21,46 +21,27 @@
  */
 package io.nut.headless.imageio;
 
+import io.nut.headless.image.ImageScaler;
 import io.nut.headless.image.ScaleDimension;
 import io.nut.headless.image.SimpleScaleDimension;
-import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.color.ColorSpace;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorConvertOp;
-import java.awt.image.ColorModel;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import javax.imageio.ImageIO;
 
 /**
  *
  * @author franci
  */
-public class ScaleImage
+public class ScaleImage extends FilterImage
 {
-    private final ConvolveOp blurOp = new ConvolveOp(new Kernel(3, 3, new float[] { 0.1111f, 0.1111f, 0.1111f,0.1111f, .1111f, .1111f,0.1111f, 0.1111f, 0.1111f }));
-    private final ScaleDimension scale;
-    private final boolean gray;
-    private final boolean nop;
+    /**
+     * @param algorithm one of ImageScaler.AUTO, BICUBIC, PROGRESSIVE, AREA or LANCZOS
+     */
+    public ScaleImage(ScaleDimension scale, boolean gray, int algorithm)
+    {
+        super(scale, gray, algorithm);
+    }
 
     public ScaleImage(ScaleDimension scale, boolean gray)
     {
-        this.scale = scale;
-        this.gray  = gray;
-        this.nop   = (scale==null) && !gray;
+        this(scale, gray, ImageScaler.AUTO);
     }
 
     public ScaleImage(ScaleDimension scale)
@@ -80,120 +61,4 @@ public class ScaleImage
     {
         this(maxWidth,maxHeight,false);
     }
-    
-    public boolean filter(File inputImage, File outputImage, String format) throws Exception
-    {
-        InputStream in = new FileInputStream(inputImage);
-        try
-        {
-            InputStream in2 = filter(in, format);
-            try
-            {
-                OutputStream out = new FileOutputStream(outputImage);
-                try
-                {
-                    byte buf[] = new byte[64 * 1024];
-                    int r;
-                    while ((r = in2.read(buf)) > 0)
-                    {
-                        out.write(buf, 0, r);
-                    }
-                }
-                finally
-                {
-                    out.close();
-                }
-                return (in!=in2);
-            }
-            finally
-            {
-                in2.close();
-            }
-        }
-        finally
-        {
-            in.close();
-        }
-    }
-
-//        // Write the scaled image to the outputstream
-//        ByteArrayOutputStream out = new ByteArrayOutputStream();
-//        JPEGImageEncoder encoder = JPEGCodec.createJPEGEncoder(out);
-//        JPEGEncodeParam param = encoder.getDefaultJPEGEncodeParam(thumbImage);
-//        int quality = 100; // Use between 1 and 100, with 100 being highest quality
-//        quality = Math.max(0, Math.min(quality, 100));
-//        param.setQuality((float) quality / 100.0f, false);
-//        encoder.setJPEGEncodeParam(param);
-//        encoder.encode(thumbImage);
-//        ImageIO.write(thumbImage, "jpg", out);
-
-
-    public InputStream filter(InputStream imageStream, String format) throws IOException
-    {
-        if(nop)
-        {
-            return imageStream;
-        }
-        
-        BufferedImage image = ImageIO.read(new BufferedInputStream(imageStream));
-        image = filter(image);
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ImageIO.write(image, format, out);
-        
-        ByteArrayInputStream bis = new ByteArrayInputStream(out.toByteArray());
-
-        return bis;
-    }
-
-    public BufferedImage filter(BufferedImage img)
-    {
-        if(nop)
-        {
-            return img;
-        }
-
-        // Make sure the aspect ratio is maintained, so the image is not skewed
-        Dimension size  = new Dimension(img.getWidth(),img.getHeight());
-        Dimension resize= (scale==null)?null:scale.convert(size);
-        if(resize==null)
-        {
-            resize = size;
-        }
-
-        if(!resize.equals(size) || gray)
-        {
-            img = scaleByGraphics2D(img,resize.width, resize.height, gray);
-        }
-        return img;
-    }
-
-    private static BufferedImage scaleByAffine(BufferedImage img, int w, int h)
-    {
-        double sx = ((double) w) / ((double) img.getWidth());
-        double sy = ((double) h) / ((double) img.getHeight());
-
-        AffineTransform ops = new AffineTransform();
-        ops.scale(sx, sy);
-
-        AffineTransformOp op = new AffineTransformOp(ops, AffineTransformOp.TYPE_BICUBIC);       
-        return op.filter(img, op.createCompatibleDestImage(img, ColorModel.getRGBdefault()));
-    }
-    private static BufferedImage scaleByGraphics2D(BufferedImage img, int w, int h, boolean gray)
-    {
-        BufferedImage scaledImage = new BufferedImage(w, h, gray?BufferedImage.TYPE_BYTE_GRAY:BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics2D = scaledImage.createGraphics();
-        graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        graphics2D.drawImage(img, 0, 0, w, h, null);
-        return scaledImage;
-    }
-    
-    private static BufferedImage grayScale(BufferedImage img)
-    {
-        ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_GRAY);
-        ColorConvertOp op = new ColorConvertOp(cs, null);
-        return op.filter(img, null);
-    }
-    
-
-}
\ No newline at end of file
+}
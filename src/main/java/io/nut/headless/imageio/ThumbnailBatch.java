@@ -0,0 +1,324 @@
+/*
+ *  ThumbnailBatch.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.imageio;
+
+import io.nut.headless.image.ImageScaler;
+import io.nut.headless.image.RasterPool;
+import io.nut.headless.image.ScaleDimension;
+import io.nut.headless.io.ForEachFile;
+import io.nut.headless.io.ForEachFileOptions;
+import io.nut.headless.io.virtual.VirtualFile;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Generates several thumbnail sizes per image decoding each source only once.
+ * Thumbnails of every size go to output/name/relative-path mirroring the input tree,
+ * images whose thumbnails are newer than the source are skipped. The extension of the
+ * format is appended to the source name, a.png becomes a.png.jpg, so a.png and a.gif
+ * of the same directory never write the same thumbnail.
+ *
+ * @author franci
+ */
+public class ThumbnailBatch implements Runnable
+{
+    private static final Logger logger = Logger.getLogger(ThumbnailBatch.class.getName());
+
+    private final File input;
+    private final File output;
+    private final String format;
+    private final ForEachFileOptions options;
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<ScaleDimension> sizes = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int algorithm = ImageScaler.AUTO;
+    private float quality = ImageEncoder.DEFAULT_QUALITY;
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public ThumbnailBatch(File input, File output, String format, ForEachFileOptions opt)
+    {
+        this.input = input.getAbsoluteFile();
+        this.output = output.getAbsoluteFile();
+        this.format = format;
+        this.options = opt == null ? new ForEachFileOptions() : new ForEachFileOptions(opt);
+        this.options.addOmitedPath(this.output);
+    }
+
+    public ThumbnailBatch(File input, File output, String format)
+    {
+        this(input, output, format, null);
+    }
+
+    /**
+     * Adds an output size, its thumbnails go to output/name.
+     */
+    public ThumbnailBatch addSize(String name, ScaleDimension size)
+    {
+        names.add(name);
+        sizes.add(size);
+        return this;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setAlgorithm(int algorithm)
+    {
+        this.algorithm = algorithm;
+    }
+
+    public void setQuality(float quality)
+    {
+        this.quality = quality;
+    }
+
+    public int getDone()
+    {
+        return done.get();
+    }
+
+    public int getSkipped()
+    {
+        return skipped.get();
+    }
+
+    public int getFailed()
+    {
+        return failed.get();
+    }
+
+    @Override
+    public void run()
+    {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // bounds the queued files, a decoded image per pending task would exhaust the heap
+        final Semaphore pending = new Semaphore(threads*2);
+        try
+        {
+            ForEachFile fef = new ForEachFile(new File[]{input}, ImageFormat.getImageFileFilter(), options)
+            {
+                @Override
+                protected void doForEach(VirtualFile fe)
+                {
+                    if(fe.isComplex())
+                    {
+                        return;
+                    }
+                    final File file = fe.getBaseFile();
+                    try
+                    {
+                        pending.acquire();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    pool.execute(() ->
+                    {
+                        try
+                        {
+                            thumbnails(file);
+                        }
+                        finally
+                        {
+                            pending.release();
+                        }
+                    });
+                }
+            };
+            fef.run();
+        }
+        catch (IOException ex)
+        {
+            logger.log(Level.SEVERE, input.toString(), ex);
+        }
+        finally
+        {
+            pool.shutdown();
+            try
+            {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes every thumbnail of one image.
+     * @return false if they were up to date
+     */
+    public boolean thumbnails(File file)
+    {
+        final File[] targets = getTargets(file);
+        if(isUpToDate(file, targets))
+        {
+            skipped.incrementAndGet();
+            return false;
+        }
+        try
+        {
+            BufferedImage image = read(file);
+            write(image, targets);
+            RasterPool.getShared().giveBack(image);
+            done.incrementAndGet();
+            return true;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            failed.incrementAndGet();
+            logger.log(Level.WARNING, file.toString(), ex);
+            return false;
+        }
+    }
+
+    // decodes into a pooled raster, it is given back once every thumbnail is written
+    private static BufferedImage read(File file) throws IOException
+    {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if(iis==null)
+        {
+            throw new IOException("can't create an ImageInputStream");
+        }
+        try
+        {
+            ImageReader reader = ImageFormat.getReader(iis);
+            if(reader==null)
+            {
+                throw new IOException("unsupported image format");
+            }
+            try
+            {
+                return ImageStrips.read(reader, RasterPool.getShared());
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        finally
+        {
+            iis.close();
+        }
+    }
+
+    private void write(BufferedImage image, File[] targets) throws IOException
+    {
+        final Dimension size = new Dimension(image.getWidth(), image.getHeight());
+        final Dimension[] dims = new Dimension[targets.length];
+        final Integer[] order = new Integer[targets.length];
+        for(int i=0;i<dims.length;i++)
+        {
+            Dimension d = sizes.get(i).convert(size);
+            dims[i] = (d==null) ? size : d;
+            order[i] = i;
+        }
+        // largest first, so every size is scaled from the previous one instead of the source
+        Arrays.sort(order, (a, b) -> Long.compare((long)dims[b].width*dims[b].height, (long)dims[a].width*dims[a].height));
+
+        final ImageEncoder encoder = new ImageEncoder(format, quality);
+        BufferedImage cur = image;
+        for(int i : order)
+        {
+            final Dimension d = dims[i];
+            BufferedImage src = (cur.getWidth()>=d.width && cur.getHeight()>=d.height) ? cur : image;
+            BufferedImage thumb = (d.width==src.getWidth() && d.height==src.getHeight()) ? src : ImageScaler.scale(src, d.width, d.height, false, algorithm);
+
+            File target = targets[i];
+            target.getParentFile().mkdirs();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(target), 64*1024);
+            boolean written;
+            try
+            {
+                written = encoder.write(thumb, out);
+            }
+            finally
+            {
+                out.close();
+            }
+            if(!written)
+            {
+                target.delete();
+                throw new IOException("can't encode "+target+" as "+format);
+            }
+            if(cur!=image && cur!=thumb)
+            {
+                RasterPool.getShared().giveBack(cur);
+            }
+            cur = thumb;
+        }
+        if(cur!=image)
+        {
+            RasterPool.getShared().giveBack(cur);
+        }
+    }
+
+    private File[] getTargets(File file)
+    {
+        String relative = input.isDirectory() ? input.toPath().relativize(file.getAbsoluteFile().toPath()).toString() : file.getName();
+        relative += ImageFormat.JPEG.equals(format) ? ".jpg" : "." + format;
+
+        File[] targets = new File[names.size()];
+        for(int i=0;i<targets.length;i++)
+        {
+            targets[i] = new File(new File(output, names.get(i)), relative);
+        }
+        return targets;
+    }
+
+    private static boolean isUpToDate(File file, File[] targets)
+    {
+        final long modified = file.lastModified();
+        for(File item : targets)
+        {
+            if(item.lastModified()<modified)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  ChecksumDigest.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * A CRC-32 Checksum as a 4 bytes big endian MessageDigest, so it can be fed along
+ * other digests. Checksums can't copy their state, a clone starts a new checksum and
+ * combines both values when digested, as zlib crc32_combine does.
+ *
+ * @author franci
+ */
+public final class ChecksumDigest extends MessageDigest
+{
+    public static final String CRC32 = "CRC32";
+    public static final String CRC32C = "CRC32C";
+
+    // reflected polynomials
+    private static final int CRC32_POLY = 0xEDB88320;
+    private static final int CRC32C_POLY = 0x82F63B78;
+
+    private final Supplier<Checksum> factory;
+    private final int poly;
+    private Checksum checksum;
+    private long length = 0;
+    private long prefix = 0;
+    private boolean combine = false;
+
+    private ChecksumDigest(String algorithm, Supplier<Checksum> factory, int poly)
+    {
+        super(algorithm);
+        this.factory = factory;
+        this.poly = poly;
+        this.checksum = factory.get();
+    }
+
+    public static ChecksumDigest crc32c()
+    {
+        return new ChecksumDigest(CRC32C, CRC32C::new, CRC32C_POLY);
+    }
+
+    public static ChecksumDigest crc32()
+    {
+        return new ChecksumDigest(CRC32, CRC32::new, CRC32_POLY);
+    }
+
+    /**
+     * Returns the digest for algorithm, CRC32 and CRC32C are built here and any other
+     * algorithm is left to MessageDigest.getInstance.
+     */
+    public static MessageDigest getInstance(String algorithm) throws NoSuchAlgorithmException
+    {
+        if(CRC32C.equalsIgnoreCase(algorithm))
+        {
+            return crc32c();
+        }
+        if(CRC32.equalsIgnoreCase(algorithm))
+        {
+            return crc32();
+        }
+        return MessageDigest.getInstance(algorithm);
+    }
+
+    @Override
+    protected int engineGetDigestLength()
+    {
+        return 4;
+    }
+
+    @Override
+    protected void engineUpdate(byte input)
+    {
+        checksum.update(input);
+        length++;
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len)
+    {
+        checksum.update(input, offset, len);
+        length += len;
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input)
+    {
+        length += input.remaining();
+        checksum.update(input);
+    }
+
+    @Override
+    protected byte[] engineDigest()
+    {
+        final int value = (int) getValue();
+        engineReset();
+        return new byte[]{(byte) (value>>>24), (byte) (value>>>16), (byte) (value>>>8), (byte) value};
+    }
+
+    @Override
+    protected void engineReset()
+    {
+        checksum.reset();
+        length = 0;
+        prefix = 0;
+        combine = false;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        ChecksumDigest copy = new ChecksumDigest(getAlgorithm(), factory, poly);
+        copy.prefix = getValue();
+        copy.combine = true;
+        return copy;
+    }
+
+    /**
+     * The checksum of every byte since the last reset.
+     */
+    public long getValue()
+    {
+        return combine ? combine(prefix, checksum.getValue(), length, poly) : checksum.getValue();
+    }
+
+    // crc of a block a followed by b, given their crcs and the length of b
+    private static long combine(long crcA, long crcB, long lengthB, int poly)
+    {
+        if(lengthB<=0)
+        {
+            return crcA;
+        }
+        final long[] even = new long[32];
+        final long[] odd = new long[32];
+        // operator for one zero bit
+        odd[0] = poly & 0xffffffffL;
+        long row = 1;
+        for(int n=1;n<32;n++)
+        {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);  // two zero bits
+        square(odd, even);  // four zero bits
+        long crc = crcA;
+        do
+        {
+            // applies lengthB zero bytes to crcA
+            square(even, odd);
+            if((lengthB & 1)!=0)
+            {
+                crc = times(even, crc);
+            }
+            lengthB >>>= 1;
+            if(lengthB==0)
+            {
+                break;
+            }
+            square(odd, even);
+            if((lengthB & 1)!=0)
+            {
+                crc = times(odd, crc);
+            }
+            lengthB >>>= 1;
+        }
+        while(lengthB!=0);
+        return crc ^ crcB;
+    }
+
+    private static long times(long[] mat, long vec)
+    {
+        long sum = 0;
+        for(int i=0;vec!=0;i++, vec>>>=1)
+        {
+            if((vec & 1)!=0)
+            {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] mat)
+    {
+        for(int n=0;n<32;n++)
+        {
+            square[n] = times(mat, mat[n]);
+        }
+    }
+}
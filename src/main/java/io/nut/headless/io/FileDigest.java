@@ -21,53 +21,117 @@
 package io.nut.headless.io;
 
 import io.nut.headless.io.virtual.VirtualFile;
+import io.nut.headless.io.virtual.VirtualFilePool;
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.compress.archivers.ArchiveException;
 
 /**
+ * Progressive digests of a file: the hash of any prefix can be asked in increasing
+ * sizes and the file is read only once. Several digests can be fed from the same
+ * buffer, optionally each one in its own thread while the next buffer is read.
  *
  * @author franci
  */
 public class FileDigest
 {
+    private static final ExecutorService lanes = Executors.newCachedThreadPool(r ->
+    {
+        Thread t = new Thread(r, "FileDigest");
+        t.setDaemon(true);
+        return t;
+    });
     private static int defBufSize = 256*1024;
+    private static volatile long treeThreshold = Long.MAX_VALUE;
     private final int bufSize = defBufSize;
     private final Object lock = new Object();
     private final File file;
     private final VirtualFile pf;
     private final long length;
-    private final byte[][] hashes = new byte[64][];
+    private final byte[][][] hashes = new byte[64][][];
     private final long[] sizes = new long[64];
-    private byte[] hash = null;
+    private byte[][] hash = null;
     private int hashCount = 0;
     private long count = 0;
-    private final MessageDigest md;
+    private final MessageDigest[] mds;
+    private final boolean parallel;
+    private TreeFileDigest tree = null;
     //resources to free in keepOff
     private int keep = 0;
     private InputStream data = null;
     
 
     public FileDigest(File file, MessageDigest md) throws NoSuchAlgorithmException
+    {
+        this(file, new MessageDigest[]{md}, false);
+    }
+    public FileDigest(VirtualFile file, MessageDigest md) throws NoSuchAlgorithmException
+    {
+        this(file, new MessageDigest[]{md}, false);
+    }
+
+    /**
+     * @param mds digests fed from every buffer, getHash returns the first one
+     * @param parallel each digest is updated in its own thread while the next buffer is read
+     */
+    public FileDigest(File file, MessageDigest[] mds, boolean parallel) throws NoSuchAlgorithmException
     {
         this.file = file;
         this.pf =null;
         this.length = file.length();
-        this.md = md;
+        this.mds = mds.clone();
+        this.parallel = parallel && mds.length>1;
     }
-    public FileDigest(VirtualFile file, MessageDigest md) throws NoSuchAlgorithmException
+    public FileDigest(VirtualFile file, MessageDigest[] mds, boolean parallel) throws NoSuchAlgorithmException
     {
         this.file = null;
         this.pf =file;
         this.length = file.length();
-        this.md = md;
+        this.mds = mds.clone();
+        this.parallel = parallel && mds.length>1;
+    }
+
+    /**
+     * Plain files of at least this length get a TreeFileDigest, disabled by default.
+     */
+    public static void setTreeThreshold(long bytes)
+    {
+        treeThreshold = bytes;
+    }
+
+    public static long getTreeThreshold()
+    {
+        return treeThreshold;
+    }
+
+    /**
+     * The tree digest of this file with the algorithm of the first digest, or null if it
+     * is not a plain file or it is shorter than the tree threshold. Its root is not the
+     * same as getHash, so only trees must be compared with trees.
+     */
+    public TreeFileDigest getTree() throws NoSuchAlgorithmException
+    {
+        synchronized (lock)
+        {
+            if(tree==null && length>=treeThreshold)
+            {
+                File plain = (file!=null) ? file : (pf!=null && !pf.isComplex() ? pf.getBaseFile() : null);
+                if(plain!=null)
+                {
+                    tree = new TreeFileDigest(plain, mds[0].getAlgorithm());
+                }
+            }
+            return tree;
+        }
     }
 
     public void keepOn()
@@ -96,18 +160,36 @@ public class FileDigest
     }
 
     public byte[] getHash() throws IOException, CloneNotSupportedException, ArchiveException
+    {
+        return getHashes()[0];
+    }
+
+    public byte[] getHash(long size) throws IOException, CloneNotSupportedException, ArchiveException
+    {
+        byte[][] all = getHashes(size);
+        return all==null ? null : all[0];
+    }
+
+    /**
+     * The hashes of the whole file, in the order of the digests.
+     */
+    public byte[][] getHashes() throws IOException, CloneNotSupportedException, ArchiveException
     {
         synchronized (lock)
         {
             if(hash==null)
             {
-                hash = getHash(length);
+                hash = getHashes(length);
             }
             return hash;
         }
     }
 
-    public byte[] getHash(long size) throws IOException, CloneNotSupportedException, ArchiveException
+    /**
+     * The hashes of the first size bytes, in the order of the digests, or null if
+     * a bigger size was already read.
+     */
+    public byte[][] getHashes(long size) throws IOException, CloneNotSupportedException, ArchiveException
     {
         synchronized (lock)
         {
@@ -129,8 +211,11 @@ public class FileDigest
         }
     }
 
-    private byte[] buildHash(long size) throws IOException, CloneNotSupportedException, ArchiveException
+    private byte[][] buildHash(long size) throws IOException, CloneNotSupportedException, ArchiveException
     {
+        final FileDigestEvent event = new FileDigestEvent();
+        final long from = count;
+        event.begin();
         if( size > 0 )
         {
             if (data == null)
@@ -138,28 +223,107 @@ public class FileDigest
                 data = getInputStream();
                 data.skip(count);
             }
-            byte[] buf = new byte[(int)Math.min(bufSize,length)];
             size = Math.min(size,length);
+            if(parallel)
+            {
+                updateParallel(size);
+            }
+            else
+            {
+                update(size);
+            }
+            // without keepOn the handle goes back to the pool budget, a later call reopens and skips
+            if (keep <= 0)
+            {
+                data.close();
+                data = null;
+            }
+        }
 
-            while (count < size)
+        byte[][] all = new byte[mds.length][];
+        for(int i=0;i<mds.length;i++)
+        {
+            MessageDigest md2 = (count < length) ? (MessageDigest) mds[i].clone() : mds[i];
+            all[i] = md2.digest();
+        }
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.path = (file != null) ? file.getPath() : pf.getPath();
+            event.bytes = count - from;
+            event.size = size;
+            event.digests = mds.length;
+            event.parallel = parallel;
+            event.commit();
+        }
+        return all;
+    }
+
+    private void update(long size) throws IOException
+    {
+        byte[] buf = new byte[(int)Math.min(bufSize,length)];
+        int r;
+        while (count < size && (r = read(buf, size)) >= 0)
+        {
+            for(MessageDigest md : mds)
             {
-                int r = (int) Math.min(buf.length, size - count);
-                assert (r>=0 && r<=buf.length);
-                r = data.read(buf, 0, r);
+                md.update(buf, 0, r);
+            }
+            count += r;
+        }
+    }
 
-                if(r<0)
+    // one ordered lane per digest, a buffer is read again only when every lane is done with it
+    private void updateParallel(long size) throws IOException
+    {
+        final int n = (int)Math.min(bufSize,length);
+        final byte[][] bufs = {new byte[n], new byte[n]};
+        final CompletableFuture<?>[] inUse = new CompletableFuture<?>[2];
+        final CompletableFuture<?>[] lane = new CompletableFuture<?>[mds.length];
+        for(int i=0;i<lane.length;i++)
+        {
+            lane[i] = CompletableFuture.completedFuture(null);
+        }
+        try
+        {
+            int r;
+            for(int k=0; count < size; k^=1)
+            {
+                if(inUse[k]!=null)
+                {
+                    inUse[k].join();
+                }
+                final byte[] buf = bufs[k];
+                if((r = read(buf, size)) < 0)
                 {
-                    Logger.getLogger(FileDigest.class.getName()).log(Level.INFO, "can't read from {0}",pf);
                     break;
                 }
-                
-                md.update(buf, 0, r);
+                final int len = r;
+                for(int i=0;i<lane.length;i++)
+                {
+                    final MessageDigest md = mds[i];
+                    lane[i] = lane[i].thenRunAsync(() -> md.update(buf, 0, len), lanes);
+                }
+                inUse[k] = CompletableFuture.allOf(lane);
                 count += r;
             }
         }
+        finally
+        {
+            CompletableFuture.allOf(lane).join();
+        }
+    }
 
-        MessageDigest md2 = (count < length) ? (MessageDigest) md.clone() : md;
-        return md2.digest();
+    private int read(byte[] buf, long size) throws IOException
+    {
+        int r = (int) Math.min(buf.length, size - count);
+        assert (r>=0 && r<=buf.length);
+        r = data.read(buf, 0, r);
+        if(r<0)
+        {
+            Logger.getLogger(FileDigest.class.getName()).log(Level.INFO, "can't read from {0}",pf);
+        }
+        return r;
     }
 
     public static long[] buildSizes()
@@ -196,7 +360,7 @@ public class FileDigest
     {
         if(file!=null)
         {
-            return new BufferedInputStream(new FileInputStream(file));
+            return new BufferedInputStream(VirtualFilePool.open(file));
         }
         if(pf!=null)
         {
@@ -0,0 +1,61 @@
+/*
+ *  FileDigestEvent.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of FileDigest reading and digesting up to a new size. Disabled by default,
+ * enable it with a JFR setting like io.nut.headless.FileDigest#enabled=true.
+ *
+ * @author franci
+ */
+@Name("io.nut.headless.FileDigest")
+@Label("File Digest")
+@Category({"Nut", "IO"})
+@Description("Bytes read and digested to reach a digest size")
+@Enabled(false)
+@StackTrace(false)
+final class FileDigestEvent extends jdk.jfr.Event
+{
+    @Label("Path")
+    String path;
+
+    @Label("Bytes")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+
+    @Label("Digest Size")
+    @DataAmount(DataAmount.BYTES)
+    long size;
+
+    @Label("Digests")
+    int digests;
+
+    @Label("Parallel")
+    boolean parallel;
+}
@@ -43,8 +43,28 @@ public class FileHash implements Comparable<FileHash>, Hash
     private final long size;
     private boolean exception = false;
     private FileDigest digest = null;
+    private byte[] sample = null;
+    private int hash = 0;
+    private boolean hashed = false;
     private final Object lock = new Object();
 
+    private static volatile boolean contentHashCode = false;
+
+    /**
+     * When enabled hashCode mixes the size with the sampled fingerprint, read once and cached,
+     * so same sized files spread over the buckets of hash based collections instead of being
+     * compared one by one. Set it before filling any collection, disabled by default.
+     */
+    public static void setContentHashCode(boolean value)
+    {
+        contentHashCode = value;
+    }
+
+    public static boolean isContentHashCode()
+    {
+        return contentHashCode;
+    }
+
     /**
      * Creates a new PackedFileHash instance from a File object.
      * @param file
@@ -107,6 +127,20 @@ public class FileHash implements Comparable<FileHash>, Hash
         VirtualFile cause = null;
         try
         {
+            // a few blocks spread over the file reject most different files early
+            if (SampledFingerprint.isSampled(size))
+            {
+                cause = this.file;
+                byte[] sampleA = this.getSample();
+                cause = other.file;
+                byte[] sampleB = other.getSample();
+                cause = null;
+                int cmp = Arrays.compare(sampleA, sampleB);
+                if (cmp != 0)
+                {
+                    return cmp;
+                }
+            }
             final FileDigest digestA = this.getDigest();
             final FileDigest digestB = other.getDigest();
             digestA.keepOn();
@@ -115,6 +149,18 @@ public class FileHash implements Comparable<FileHash>, Hash
                 digestB.keepOn();
                 try
                 {
+                    // archive entries have no tree, so trees only tell equal files apart, the
+                    // order always comes from the prefix digests every file has to stay transitive
+                    TreeFileDigest treeA = digestA.getTree();
+                    TreeFileDigest treeB = digestB.getTree();
+                    if (treeA != null && treeB != null)
+                    {
+                        cause = this.file;
+                        if (TreeFileDigest.compare(treeA, treeB) == 0)
+                        {
+                            return 0;
+                        }
+                    }
                     for (int i = 0; i < SIZES.length - 1 && SIZES[i]<size ; i++)
                     {
                         // avoid reading just few bytes in the next iteration
@@ -172,6 +218,18 @@ public class FileHash implements Comparable<FileHash>, Hash
         return file.compareTo(other.file);
     }
 
+    private byte[] getSample() throws IOException, ArchiveException
+    {
+        synchronized (lock)
+        {
+            if (sample == null)
+            {
+                sample = SampledFingerprint.build(file);
+            }
+            return sample;
+        }
+    }
+
     private FileDigest getDigest() throws NoSuchAlgorithmException
     {
         synchronized (lock)
@@ -219,7 +277,27 @@ public class FileHash implements Comparable<FileHash>, Hash
     @Override
     public int hashCode()
     {
-        return (int)this.size;
+        if (!contentHashCode || this.size == 0)
+        {
+            return (int)this.size;
+        }
+        synchronized (lock)
+        {
+            if (!hashed)
+            {
+                try
+                {
+                    hash = SampledFingerprint.hashCode(size, getSample());
+                }
+                catch (IOException | ArchiveException ex)
+                {
+                    Logger.getLogger(FileHash.class.getName()).log(Level.WARNING, file.getPath(), ex);
+                    hash = Long.hashCode(size);
+                }
+                hashed = true;
+            }
+            return hash;
+        }
     }
 
 }
@@ -0,0 +1,757 @@
+/*
+ *  FileInventory.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.headless.io.virtual.VirtualFile;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * On disk columnar store of traversed files, so huge trees can be analyzed without keeping
+ * a VirtualFile per entry on the heap.
+ * <p>
+ * Every column is a memory mapped file in the inventory directory: directory id, name,
+ * size, modification time, type and, when digestLength is not 0, a fixed size digest.
+ * Paths are split in a directory and the rest of the path; directory paths are stored once
+ * in a dictionary, found through a mapped hash index rebuilt on open, and the rest is
+ * appended to a names file, so an entry costs
+ * 29 bytes plus its name and digest. Scans read the columns as primitives, grouping by size
+ * sorts scratch mapped columns, so heap use depends on the largest group and not on
+ * the number of entries. A single mapping per column limits the inventory to
+ * Integer.MAX_VALUE/digestLength entries, about 67 million with 32 byte digests.
+ *
+ * @author franci
+ */
+public class FileInventory implements Closeable
+{
+    public static final int DIRECTORY = 1;
+    public static final int PACKED = 2;
+    public static final int DIGESTED = 4;
+
+    public interface EntryScan
+    {
+        void visit(int id, long size, long modified, int type) throws IOException;
+    }
+
+    /**
+     * Receives the ids of a group, ids and its first count positions are only valid during the call.
+     */
+    public interface GroupScan
+    {
+        void visit(long size, int[] ids, int count) throws IOException;
+    }
+
+    private static final long MAGIC = 0x4e5554494e563031L; // "NUTINV01"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int DIR_CACHE = 4096;
+    // a name reference is the offset in the names file and the length in its low bits
+    private static final int LENGTH_BITS = 20;
+    private static final int MAX_LENGTH = (1 << LENGTH_BITS) - 1;
+
+    // header offsets
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_DIGEST = 12;
+    private static final int H_COUNT = 16;
+    private static final int H_DIRS = 20;
+    private static final int H_NAMES = 24;
+    private static final int HEADER = 64;
+
+    private static final class Column
+    {
+        private final FileChannel channel;
+        private final int width;
+        private MappedByteBuffer map;
+
+        Column(File file, int width, StandardOpenOption... extra) throws IOException
+        {
+            StandardOpenOption[] options = Arrays.copyOf(new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE}, 3 + extra.length);
+            System.arraycopy(extra, 0, options, 3, extra.length);
+            this.channel = FileChannel.open(file.toPath(), options);
+            this.width = width;
+        }
+
+        int stored() throws IOException
+        {
+            return (int) (channel.size() / width);
+        }
+
+        void map(int capacity) throws IOException
+        {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)capacity*width);
+        }
+
+        void close() throws IOException
+        {
+            map = null;
+            channel.close();
+        }
+    }
+
+    private final File directory;
+    private final int digestLength;
+
+    private Column header;
+    private Column dirs;
+    private Column dirKeys;
+    private Column dirIndex;
+    private Column dir;
+    private Column name;
+    private Column size;
+    private Column modified;
+    private Column type;
+    private Column digest;
+    private FileChannel names;
+    private int capacity;
+    private int dirsCapacity;
+    private int count;
+    private int dirsCount;
+    private int slots;
+    private long namesLength;
+    // recently used directories, siblings are visited together and skip reading the name to verify it
+    private HashMap<String, Integer> recentDirs;
+
+    /**
+     * @param directory where the columns are stored, it is created if needed
+     * @param digestLength bytes of the digest column, 0 for no digests
+     */
+    public FileInventory(File directory, int digestLength)
+    {
+        this.directory = directory;
+        this.digestLength = digestLength;
+    }
+
+    public FileInventory(File directory)
+    {
+        this(directory, 32);
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public int getDigestLength()
+    {
+        return digestLength;
+    }
+
+    /**
+     * Number of entries in the inventory.
+     */
+    public synchronized int size() throws IOException
+    {
+        open();
+        return count;
+    }
+
+    /**
+     * Appends file, directories included, reading its size and modification time.
+     * @return the id of the entry
+     */
+    public int add(VirtualFile file) throws IOException
+    {
+        final boolean dir = file.isDirectory();
+        final int flags = (dir ? DIRECTORY : 0) | (file.isComplex() ? PACKED : 0);
+        return add(file.getPath(), dir ? 0 : file.length(), file.lastModified(), flags);
+    }
+
+    /**
+     * @param flags DIRECTORY and PACKED bits, DIGESTED is set by setDigest
+     * @return the id of the entry
+     */
+    public synchronized int add(String path, long length, long lastModified, int flags) throws IOException
+    {
+        open();
+        final int cut = cut(path);
+        final int dirId = (cut < 0) ? -1 : dirId(path.substring(0, cut));
+        final long ref = append(path.substring(cut < 0 ? 0 : cut));
+        if(count == capacity)
+        {
+            grow();
+        }
+        final int i = count;
+        dir.map.putInt(i*4, dirId);
+        name.map.putLong(i*8, ref);
+        size.map.putLong(i*8, length);
+        modified.map.putLong(i*8, lastModified);
+        type.map.put(i, (byte) (flags & (DIRECTORY | PACKED)));
+        count++;
+        writeHeader();
+        return i;
+    }
+
+    public synchronized String getPath(int i) throws IOException
+    {
+        open();
+        check(i);
+        final int dirId = dir.map.getInt(i*4);
+        final String rest = read(name.map.getLong(i*8));
+        return (dirId < 0) ? rest : read(dirs.map.getLong(dirId*8)) + rest;
+    }
+
+    public VirtualFile getFile(int i) throws IOException
+    {
+        return new VirtualFile(getPath(i));
+    }
+
+    public synchronized long getSize(int i) throws IOException
+    {
+        open();
+        check(i);
+        return size.map.getLong(i*8);
+    }
+
+    public synchronized long getModified(int i) throws IOException
+    {
+        open();
+        check(i);
+        return modified.map.getLong(i*8);
+    }
+
+    public synchronized int getType(int i) throws IOException
+    {
+        open();
+        check(i);
+        return type.map.get(i);
+    }
+
+    public synchronized void setDigest(int i, byte[] value) throws IOException
+    {
+        open();
+        check(i);
+        if(digest == null)
+        {
+            throw new IllegalStateException("inventory without digests");
+        }
+        digest.map.put(i*digestLength, Arrays.copyOf(value, digestLength));
+        type.map.put(i, (byte) (type.map.get(i) | DIGESTED));
+    }
+
+    /**
+     * @return a copy of the digest, null if it was not set
+     */
+    public synchronized byte[] getDigest(int i) throws IOException
+    {
+        open();
+        check(i);
+        if((type.map.get(i) & DIGESTED) == 0)
+        {
+            return null;
+        }
+        byte[] value = new byte[digestLength];
+        digest.map.get(i*digestLength, value);
+        return value;
+    }
+
+    /**
+     * Visits every entry in id order without building any object.
+     */
+    public synchronized void scan(EntryScan scan) throws IOException
+    {
+        open();
+        for(int i=0;i<count;i++)
+        {
+            scan.visit(i, size.map.getLong(i*8), modified.map.getLong(i*8), type.map.get(i));
+        }
+    }
+
+    /**
+     * Visits groups of two or more files, directories excluded, of the same size not smaller
+     * than minSize, in ascending size order. Ids of every group are ascending and scan may
+     * set their digests. Sorting uses two scratch files in the inventory directory.
+     */
+    public synchronized void forEachSizeGroup(long minSize, GroupScan scan) throws IOException
+    {
+        open();
+        final File keysFile = new File(directory, "sort.keys");
+        final File idsFile = new File(directory, "sort.ids");
+        final Column keys = new Column(keysFile, 8, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+        try
+        {
+            final Column ids = new Column(idsFile, 4, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+            try
+            {
+                int n = 0;
+                for(int i=0;i<count;i++)
+                {
+                    if((type.map.get(i) & DIRECTORY) == 0 && size.map.getLong(i*8) >= minSize)
+                    {
+                        n++;
+                    }
+                }
+                keys.map(Math.max(1, n));
+                ids.map(Math.max(1, n));
+                for(int i=0, j=0;i<count;i++)
+                {
+                    final long length = size.map.getLong(i*8);
+                    if((type.map.get(i) & DIRECTORY) == 0 && length >= minSize)
+                    {
+                        keys.map.putLong(j*8, length);
+                        ids.map.putInt(j*4, i);
+                        j++;
+                    }
+                }
+                sort(keys.map, ids.map, 0, n);
+                int[] group = new int[16];
+                for(int start=0, end;start<n;start=end)
+                {
+                    final long length = keys.map.getLong(start*8);
+                    for(end=start+1;end<n && keys.map.getLong(end*8)==length;end++);
+                    if(end-start > 1)
+                    {
+                        if(end-start > group.length)
+                        {
+                            group = new int[Integer.highestOneBit(end-start)*2];
+                        }
+                        for(int k=start;k<end;k++)
+                        {
+                            group[k-start] = ids.map.getInt(k*4);
+                        }
+                        Arrays.sort(group, 0, end-start);
+                        scan.visit(length, group, end-start);
+                    }
+                }
+            }
+            finally
+            {
+                ids.close();
+            }
+        }
+        finally
+        {
+            keys.close();
+        }
+    }
+
+    /**
+     * Visits groups of two or more files with the same size and digest, files without a digest
+     * are ignored. Digests are usually set from forEachSizeGroup, only for groups to check.
+     */
+    public synchronized void forEachDuplicate(long minSize, final GroupScan scan) throws IOException
+    {
+        if(digestLength == 0)
+        {
+            throw new IllegalStateException("inventory without digests");
+        }
+        forEachSizeGroup(minSize, (length, ids, n) ->
+        {
+            int m = 0;
+            for(int k=0;k<n;k++)
+            {
+                if((type.map.get(ids[k]) & DIGESTED) != 0)
+                {
+                    ids[m++] = ids[k];
+                }
+            }
+            if(m < 2)
+            {
+                return;
+            }
+            final byte[] values = new byte[m*digestLength];
+            for(int k=0;k<m;k++)
+            {
+                digest.map.get(ids[k]*digestLength, values, k*digestLength, digestLength);
+            }
+            // positions sorted by digest, the sort is stable so ids stay ascending inside every run
+            final Integer[] order = new Integer[m];
+            for(int k=0;k<m;k++)
+            {
+                order[k] = k;
+            }
+            Arrays.sort(order, (a, b) -> compare(values, a, b));
+            final int[] group = new int[m];
+            for(int start=0, end;start<m;start=end)
+            {
+                for(end=start+1;end<m && compare(values, order[start], order[end])==0;end++);
+                if(end-start > 1)
+                {
+                    for(int k=start;k<end;k++)
+                    {
+                        group[k-start] = ids[order[k]];
+                    }
+                    scan.visit(length, group, end-start);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the mapped columns and the names to disk.
+     */
+    public synchronized void flush() throws IOException
+    {
+        if(header != null)
+        {
+            names.force(false);
+            for(Column column : columns())
+            {
+                column.map.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if(header != null)
+        {
+            flush();
+            recentDirs = null;
+            IOException error = null;
+            for(Column column : columns())
+            {
+                try
+                {
+                    column.close();
+                }
+                catch(IOException ex)
+                {
+                    error = ex;
+                }
+            }
+            header = null;
+            names.close();
+            if(error != null)
+            {
+                throw error;
+            }
+        }
+    }
+
+    private Column[] columns()
+    {
+        return (digest == null) ? new Column[]{header, dirs, dirKeys, dirIndex, dir, name, size, modified, type} : new Column[]{header, dirs, dirKeys, dirIndex, dir, name, size, modified, type, digest};
+    }
+
+    private void open() throws IOException
+    {
+        if(header != null)
+        {
+            return;
+        }
+        if(!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("can't create inventory "+directory);
+        }
+        try
+        {
+            header = new Column(new File(directory, "inventory"), 1);
+            final boolean created = header.stored() == 0;
+            header.map(HEADER);
+            if(created)
+            {
+                header.map.putLong(H_MAGIC, MAGIC);
+                header.map.putInt(H_VERSION, VERSION);
+                header.map.putInt(H_DIGEST, digestLength);
+            }
+            else if(header.map.getLong(H_MAGIC) != MAGIC || header.map.getInt(H_VERSION) != VERSION || header.map.getInt(H_DIGEST) != digestLength)
+            {
+                throw new IOException("not a file inventory with "+digestLength+" byte digests "+directory);
+            }
+            count = header.map.getInt(H_COUNT);
+            dirsCount = header.map.getInt(H_DIRS);
+            namesLength = header.map.getLong(H_NAMES);
+            dirs = new Column(new File(directory, "dirs.col"), 8);
+            dirKeys = new Column(new File(directory, "dirkeys.col"), 8);
+            dirIndex = new Column(new File(directory, "dirs.idx"), 4);
+            dir = new Column(new File(directory, "dir.col"), 4);
+            name = new Column(new File(directory, "name.col"), 8);
+            size = new Column(new File(directory, "size.col"), 8);
+            modified = new Column(new File(directory, "modified.col"), 8);
+            type = new Column(new File(directory, "type.col"), 1);
+            digest = (digestLength > 0) ? new Column(new File(directory, "digest.col"), digestLength) : null;
+            names = FileChannel.open(new File(directory, "names").toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // drops names appended after the last entry was committed
+            names.truncate(namesLength);
+            dirsCapacity = Math.max(INITIAL_CAPACITY, Math.max(dirs.stored(), dirsCount));
+            dirs.map(dirsCapacity);
+            dirKeys.map(dirsCapacity);
+            // the index is rebuilt from the keys, so it never refers to uncommitted directories
+            reindex(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, dirsCount))*4));
+            capacity = Math.max(INITIAL_CAPACITY, Math.max(size.stored(), count));
+            for(Column column : columns())
+            {
+                if(isEntryColumn(column))
+                {
+                    column.map(capacity);
+                }
+            }
+            recentDirs = new HashMap<>();
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            for(Column column : new Column[]{header, dirs, dirKeys, dirIndex, dir, name, size, modified, type, digest})
+            {
+                if(column != null)
+                {
+                    column.close();
+                }
+            }
+            if(names != null)
+            {
+                names.close();
+            }
+            header = null;
+            throw ex;
+        }
+    }
+
+    private void grow() throws IOException
+    {
+        final int max = Integer.MAX_VALUE / Math.max(8, digestLength);
+        if(capacity >= max)
+        {
+            throw new IOException("inventory full "+directory);
+        }
+        capacity = (int) Math.min(max, 2L*capacity);
+        for(Column column : columns())
+        {
+            if(isEntryColumn(column))
+            {
+                column.map(capacity);
+            }
+        }
+    }
+
+    private boolean isEntryColumn(Column column)
+    {
+        return column != header && column != dirs && column != dirKeys && column != dirIndex;
+    }
+
+    // directory ids by path, linear probing over the mapped index of dir id + 1, 0 is empty
+    private int dirId(String path) throws IOException
+    {
+        Integer id = recentDirs.get(path);
+        if(id != null)
+        {
+            return id;
+        }
+        final long key = key(path);
+        final int mask = slots - 1;
+        int slot = slot(key, mask);
+        for(int item; (item = dirIndex.map.getInt(slot*4)) != 0; slot = (slot+1) & mask)
+        {
+            if(dirKeys.map.getLong((item-1)*8) == key && read(dirs.map.getLong((item-1)*8)).equals(path))
+            {
+                cache(path, item-1);
+                return item-1;
+            }
+        }
+        if(dirsCount == dirsCapacity)
+        {
+            if(dirsCapacity >= Integer.MAX_VALUE/8)
+            {
+                throw new IOException("inventory full "+directory);
+            }
+            dirsCapacity = (int) Math.min(Integer.MAX_VALUE/8, 2L*dirsCapacity);
+            dirs.map(dirsCapacity);
+            dirKeys.map(dirsCapacity);
+        }
+        final int i = dirsCount++;
+        dirs.map.putLong(i*8, append(path));
+        dirKeys.map.putLong(i*8, key);
+        dirIndex.map.putInt(slot*4, i+1);
+        if(dirsCount*2 > slots)
+        {
+            reindex(slots*2);
+        }
+        cache(path, i);
+        return i;
+    }
+
+    private void cache(String path, int i)
+    {
+        if(recentDirs.size() == DIR_CACHE)
+        {
+            recentDirs.clear();
+        }
+        recentDirs.put(path, i);
+    }
+
+    private void reindex(int count) throws IOException
+    {
+        slots = count;
+        dirIndex.map(slots);
+        for(int i=0;i<slots;i++)
+        {
+            dirIndex.map.putInt(i*4, 0);
+        }
+        final int mask = slots - 1;
+        for(int i=0;i<dirsCount;i++)
+        {
+            int slot = slot(dirKeys.map.getLong(i*8), mask);
+            while(dirIndex.map.getInt(slot*4) != 0)
+            {
+                slot = (slot+1) & mask;
+            }
+            dirIndex.map.putInt(slot*4, i+1);
+        }
+    }
+
+    private static int slot(long key, int mask)
+    {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private long append(String value) throws IOException
+    {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > MAX_LENGTH)
+        {
+            throw new IOException("path too long "+value);
+        }
+        ByteBuffer src = ByteBuffer.wrap(bytes);
+        for(long pos=namesLength; src.hasRemaining(); pos+=names.write(src, pos));
+        final long ref = (namesLength << LENGTH_BITS) | bytes.length;
+        namesLength += bytes.length;
+        return ref;
+    }
+
+    private String read(long ref) throws IOException
+    {
+        final ByteBuffer dst = ByteBuffer.allocate((int) (ref & MAX_LENGTH));
+        for(long pos=ref >>> LENGTH_BITS; dst.hasRemaining(); )
+        {
+            int n = names.read(dst, pos);
+            if(n < 0)
+            {
+                throw new IOException("truncated names file "+directory);
+            }
+            pos += n;
+        }
+        return new String(dst.array(), StandardCharsets.UTF_8);
+    }
+
+    private void writeHeader()
+    {
+        header.map.putInt(H_COUNT, count);
+        header.map.putInt(H_DIRS, dirsCount);
+        header.map.putLong(H_NAMES, namesLength);
+    }
+
+    // 64 bit FNV-1a of the path chars
+    private static long key(String path)
+    {
+        long h = 0xcbf29ce484222325L;
+        for(int i=0;i<path.length();i++)
+        {
+            h ^= path.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private void check(int i)
+    {
+        if(i < 0 || i >= count)
+        {
+            throw new IndexOutOfBoundsException("id "+i+" of "+count);
+        }
+    }
+
+    // the directory ends before the last separator, the separator stays in the rest
+    private static int cut(String path)
+    {
+        for(int i=path.length()-2;i>0;i--)
+        {
+            final char c = path.charAt(i);
+            if(c == '/' || c == '!' || c == File.separatorChar)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(byte[] values, int a, int b)
+    {
+        return Arrays.compareUnsigned(values, a*digestLength, (a+1)*digestLength, values, b*digestLength, (b+1)*digestLength);
+    }
+
+    // quicksort of the keys moving ids along, recursion only into the smaller part
+    private static void sort(ByteBuffer keys, ByteBuffer ids, int from, int to)
+    {
+        while(to-from > 16)
+        {
+            final int mid = (from+to) >>> 1;
+            final long pivot = median(keys.getLong(from*8), keys.getLong(mid*8), keys.getLong((to-1)*8));
+            int i = from;
+            int j = to-1;
+            while(i <= j)
+            {
+                while(keys.getLong(i*8) < pivot)
+                {
+                    i++;
+                }
+                while(keys.getLong(j*8) > pivot)
+                {
+                    j--;
+                }
+                if(i <= j)
+                {
+                    swap(keys, ids, i++, j--);
+                }
+            }
+            if(j-from < to-i)
+            {
+                sort(keys, ids, from, j+1);
+                from = i;
+            }
+            else
+            {
+                sort(keys, ids, i, to);
+                to = j+1;
+            }
+        }
+        for(int i=from+1;i<to;i++)
+        {
+            for(int j=i;j>from && keys.getLong((j-1)*8) > keys.getLong(j*8);j--)
+            {
+                swap(keys, ids, j-1, j);
+            }
+        }
+    }
+
+    private static long median(long a, long b, long c)
+    {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(ByteBuffer keys, ByteBuffer ids, int i, int j)
+    {
+        final long k = keys.getLong(i*8);
+        keys.putLong(i*8, keys.getLong(j*8));
+        keys.putLong(j*8, k);
+        final int v = ids.getInt(i*4);
+        ids.putInt(i*4, ids.getInt(j*4));
+        ids.putInt(j*4, v);
+    }
+}
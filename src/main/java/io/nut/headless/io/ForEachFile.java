@@ -71,8 +71,12 @@ public abstract class ForEachFile implements Runnable
     private final VirtualFile[] base;
     private final ForEachFileOptions options;
     private final VirtualFileFilter filter;
-    private final HashSet<File> autoOmitPaths = new HashSet<>();
+    private final PathTrie autoOmitPaths = new PathTrie();
+    private final PathTrie omitedPaths = new PathTrie();
+    private final HashSet<VirtualFile> omitedComplexPaths = new HashSet<>();
     private final CoveredPath coveredPath;
+    private volatile ForEachFileMetrics metrics = new ForEachFileMetrics();
+    volatile ForEachFileWatcher watcher;
     static final Logger logger = Logger.getLogger(ForEachFile.class.getName());
     private static final ArchiveStreamFactory asf = new ArchiveStreamFactory();
 
@@ -81,6 +85,19 @@ public abstract class ForEachFile implements Runnable
         return new ForEachFileOptions(options);
     }
 
+    public ForEachFileMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Shares a metrics instance, for instance between several ForEachFile of the same crawl.
+     */
+    public void setMetrics(ForEachFileMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
     public static int getBufSize()
     {
         return bufSize;
@@ -127,6 +144,17 @@ public abstract class ForEachFile implements Runnable
         {
             options.autoOmit = false;
         }
+        for (VirtualFile item : options.omitedPaths)
+        {
+            if (item.isComplex())
+            {
+                omitedComplexPaths.add(item);
+            }
+            else
+            {
+                omitedPaths.add(item.getBaseFile());
+            }
+        }
     }
 
     private boolean acceptSize(long size)
@@ -136,21 +164,31 @@ public abstract class ForEachFile implements Runnable
 
     public void run()
     {
-        for (VirtualFile item : base)
+        final ForEachFileMetrics m = metrics;
+        m.start();
+        try
         {
-            VirtualFile file;
-            try
+            for (VirtualFile item : base)
             {
-                file = VirtualFiles.getNoDotFile(item);
-                if (file != null)
+                VirtualFile file;
+                try
                 {
-                    visit(file, null, 0);
+                    file = VirtualFiles.getNoDotFile(item);
+                    if (file != null)
+                    {
+                        visit(file, null, 0);
+                    }
+                }
+                catch (IOException ex)
+                {
+                    m.addError(ex);
+                    Logger.getLogger(ForEachFile.class.getName()).log(Level.SEVERE, null, ex);
                 }
             }
-            catch (IOException ex)
-            {
-                Logger.getLogger(ForEachFile.class.getName()).log(Level.SEVERE, null, ex);
-            }
+        }
+        finally
+        {
+            m.stop();
         }
     }
 
@@ -161,21 +199,39 @@ public abstract class ForEachFile implements Runnable
             return;
         }    
         logger.log(Level.FINEST, "file={0}", file);
+        final ForEachFileMetrics m = metrics;
         try
         {
-            if(!canVisit(file, level))
+            long t = m.begin();
+            final boolean visible = canVisit(file, level);
+            m.end(ForEachFileMetrics.Phase.STAT, t);
+            if(!visible)
             {
                 return;
             }
-            if( canDo(file) )
+            t = m.begin();
+            final long length = canDo(file);
+            m.end(ForEachFileMetrics.Phase.FILTER, t);
+            if( length >= 0 )
             {
+                t = m.begin();
                 doForEach(file);
+                m.end(ForEachFileMetrics.Phase.CALLBACK, t);
+            }
+            final boolean directory = file.isDirectory();
+            if(directory)
+            {
+                m.addDirectory();
+            }
+            else
+            {
+                m.addFile(Math.max(0, length));
             }
             if (!file.canRead())
             {
                 return;
             }
-            if(!file.isComplex() && file.isDirectory())
+            if(!file.isComplex() && directory)
             {
                 followDirectory(file.getBaseFile(),level);
             }
@@ -192,15 +248,43 @@ public abstract class ForEachFile implements Runnable
 
     private void followDirectory(File file, int level)
     {
+        final ForEachFileMetrics m = metrics;
+        final DirectoryListingEvent event = new DirectoryListingEvent();
+        event.begin();
+        final long t = m.begin();
         File[] childs = file.listFiles();
+        m.end(ForEachFileMetrics.Phase.LISTING, t);
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.path = file.getPath();
+            event.entries = (childs == null) ? -1 : childs.length;
+            event.level = level;
+            event.commit();
+        }
         if (childs == null)
         {
             logger.log(Level.WARNING, "error in {0}", file);
             return;
         }
-        for (File child : childs)
+        final ForEachFileWatcher w = watcher;
+        if (w != null)
+        {
+            w.register(file, level);
+        }
+        m.addPending(childs.length);
+        SiblingNames.enter(file, childs);
+        try
+        {
+            for (File child : childs)
+            {
+                m.addPending(-1);
+                visit(new VirtualFile(child), null, level + 1);
+            }
+        }
+        finally
         {
-            visit(new VirtualFile(child), null, level + 1);
+            SiblingNames.leave();
         }
     }
     private void followArchive(VirtualFile pf, InputStream in, int level) throws ArchiveException, IOException
@@ -211,6 +295,7 @@ public abstract class ForEachFile implements Runnable
         }
 
         ArchiveInputStream zip = asf.createArchiveInputStream(new BufferedInputStream(in));
+        metrics.addArchive(pf.getDepth());
         ArchiveEntry ent = null;
         try
         {
@@ -227,41 +312,49 @@ public abstract class ForEachFile implements Runnable
         }
     }
 
-    private boolean canDo(final VirtualFile file)
+    // the length of an accepted file, 0 for other accepted entries, -1 when rejected
+    private long canDo(final VirtualFile file)
     {
         if(options.onlyPacked)
         {
-            return false;
+            return -1;
         }
+        long length = 0;
         if(file.isFile())
         {
             if(!options.file)
-                return false;
-            if(!acceptSize(file.length()))
-                return false;
+                return -1;
+            length = file.length();
+            if(!acceptSize(length))
+            {
+                metrics.addSkipped();
+                return -1;
+            }
         }
         else if(file.isDirectory())
         {
             if(!options.directory)
-                return false;
+                return -1;
         }
         else
         {
             if(!options.fifo)
-                return false;
+                return -1;
             if(!acceptSize(0))
-                return false;
+                return -1;
         }
 
         if (filter != null && !filter.accept(file))
         {
-            return false;
+            metrics.addSkipped();
+            return -1;
         }
         if (isOmitedFile(file))
         {
-            return false;
+            metrics.addSkipped();
+            return -1;
         }
-        return true;
+        return length;
     }
 
 
@@ -285,6 +378,53 @@ public abstract class ForEachFile implements Runnable
 
     protected abstract void doForEach(VirtualFile fe);
 
+    /**
+     * Called by a ForEachFileWatcher for every removed file that the filters would have
+     * accepted, the file no longer exists. A removed or moved away directory that was being
+     * walked is sent once, whatever options.directory says, meaning that every entry sent
+     * below it is gone too; the entries below it are not sent one by one. Does nothing by default.
+     */
+    protected void doDelete(VirtualFile fe)
+    {
+    }
+
+    // entry points for ForEachFileWatcher, file is a child of a directory visited at level-1
+    void visit(VirtualFile file, int level)
+    {
+        visit(file, null, level);
+    }
+
+    // walked directories already passed the filters when they were listed
+    void delete(VirtualFile file, boolean walked)
+    {
+        if (walked || canDelete(file))
+        {
+            doDelete(file);
+        }
+    }
+
+    // the filters that don't need the file to exist
+    private boolean canDelete(VirtualFile file)
+    {
+        if (options.onlyPacked || !options.file)
+        {
+            return false;
+        }
+        if (!options.hidden && file.getName().startsWith("."))
+        {
+            return false;
+        }
+        if (isOmitedFile(file))
+        {
+            return false;
+        }
+        if (isOmitedPath(file, true))
+        {
+            return false;
+        }
+        return filter == null || filter.accept(file);
+    }
+
     protected void doForEach(File file, String name)
     {
         doForEach(new VirtualFile(file));
@@ -292,30 +432,26 @@ public abstract class ForEachFile implements Runnable
 
     private void doException(String msg, Exception ex)
     {
+        metrics.addError(ex);
         logger.log(Level.SEVERE, msg, ex);
     }
 
     private boolean isOmitedPath(final VirtualFile file, boolean verifyParents)
     {
-        final boolean omitImplicit = options.autoOmit && !autoOmitPaths.isEmpty();
-        if (omitImplicit && autoOmitPaths.contains(file.getBaseFile()))
-        {
-            return true;
-        }
-        final boolean omitExplicit = options.hasOmitedPaths && !options.omitedPaths.isEmpty();
-        if (omitExplicit && options.omitedPaths.contains(file))
+        final File base = file.getBaseFile();
+        if (options.autoOmit && autoOmitPaths.contains(base, true, verifyParents))
         {
             return true;
         }
-        if ((omitImplicit || omitExplicit) && verifyParents)
+        if (options.hasOmitedPaths)
         {
-            File parent = file.getBaseFile();
-            while ((parent = parent.getParentFile()) != null)
+            if (file.isComplex() ? omitedComplexPaths.contains(file) : omitedPaths.contains(base, true, false))
             {
-                if (isOmitedPath(new VirtualFile(parent), false))
-                {
-                    return true;
-                }
+                return true;
+            }
+            if (verifyParents && omitedPaths.contains(base, false, true))
+            {
+                return true;
             }
         }
         return false;
@@ -323,17 +459,7 @@ public abstract class ForEachFile implements Runnable
 
     private boolean isOmitedDirName(final VirtualFile file)
     {
-        if (options.hasOmitedDirNames)
-        {
-            for (VirtualFileFilter item : options.omitedDirNames)
-            {
-                if (item.accept(file))
-                {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return options.hasOmitedDirNames && options.getOmitedDirMatcher().accept(file);
     }
 
     private boolean isOmitedFile(final VirtualFile file)
@@ -345,27 +471,14 @@ public abstract class ForEachFile implements Runnable
                 return true;
             }
         }
-        if (options.hasOmitedFileNames)
+        if (options.hasOmitedFileNames && options.getOmitedFileMatcher().accept(file))
         {
-            for (VirtualFileFilter item : options.omitedFileNames)
-            {
-                if (item.accept(file))
-                {
-                    return true;
-                }
-            }
+            return true;
         }
         // when there are filter for allowed files at least one should be satisfied
         if (options.hasAllowedFileNames)
         {
-            for (VirtualFileFilter item : options.allowedFileNames)
-            {
-                if(item.accept(file))
-                {
-                    return false;
-                }
-            }
-            return true;
+            return !options.getAllowedFileMatcher().accept(file);
         }
 
         return false;
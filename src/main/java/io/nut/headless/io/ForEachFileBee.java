@@ -35,13 +35,23 @@ public class ForEachFileBee extends ForEachFile
     private final boolean eof;
     private final Bee<VirtualFile> fileBee;
     private final Bee<String> nameBee;
+    private final Bee<VirtualFile> deleteBee;
 
-    public ForEachFileBee(File[] file, FileFilter filter, ForEachFileOptions opt, Bee<VirtualFile> fileBee, Bee<String> nameBee, boolean eof) throws IOException
+    /**
+     * @param deleteBee receives the files removed while a ForEachFileWatcher watches, may be null
+     */
+    public ForEachFileBee(File[] file, FileFilter filter, ForEachFileOptions opt, Bee<VirtualFile> fileBee, Bee<String> nameBee, Bee<VirtualFile> deleteBee, boolean eof) throws IOException
     {
         super(file, filter,opt);
         this.eof      = eof;
         this.fileBee = fileBee;
         this.nameBee = nameBee;
+        this.deleteBee = deleteBee;
+    }
+
+    public ForEachFileBee(File[] file, FileFilter filter, ForEachFileOptions opt, Bee<VirtualFile> fileBee, Bee<String> nameBee, boolean eof) throws IOException
+    {
+        this(file, filter, opt, fileBee, nameBee, null, eof);
     }
 
     public ForEachFileBee(File[] file, ForEachFileOptions opt, Bee<VirtualFile> bee, boolean eof) throws IOException
@@ -66,6 +76,15 @@ public class ForEachFileBee extends ForEachFile
         }
     }
 
+    @Override
+    protected void doDelete(VirtualFile fe)
+    {
+        if (deleteBee != null)
+        {
+            deleteBee.send(fe);
+        }
+    }
+
     @Override
     public void run()
     {
@@ -80,6 +99,10 @@ public class ForEachFileBee extends ForEachFile
             {
                 nameBee.shutdown();
             }
+            if (deleteBee != null)
+            {
+                deleteBee.shutdown();
+            }
         }
     }
 
@@ -92,4 +115,9 @@ public class ForEachFileBee extends ForEachFile
     {
         return nameBee;
     }
+
+    public Bee<VirtualFile> getDeleteBee()
+    {
+        return deleteBee;
+    }
 }
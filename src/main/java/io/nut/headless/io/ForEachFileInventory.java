@@ -0,0 +1,82 @@
+/*
+ *  ForEachFileInventory.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.headless.io.virtual.VirtualFile;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends every visited file to a FileInventory, the inventory is flushed at the end
+ * and stays open.
+ *
+ * @author franci
+ */
+public class ForEachFileInventory extends ForEachFile
+{
+    private final FileInventory inventory;
+
+    public ForEachFileInventory(File[] file, FileFilter filter, ForEachFileOptions opt, FileInventory inventory) throws IOException
+    {
+        super(file, filter, opt);
+        this.inventory = inventory;
+    }
+
+    public ForEachFileInventory(File[] file, ForEachFileOptions opt, FileInventory inventory) throws IOException
+    {
+        this(file, null, opt, inventory);
+    }
+
+    @Override
+    protected void doForEach(VirtualFile fe)
+    {
+        try
+        {
+            inventory.add(fe);
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(ForEachFileInventory.class.getName()).log(Level.SEVERE, fe.toString(), ex);
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        super.run();
+        try
+        {
+            inventory.flush();
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(ForEachFileInventory.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public FileInventory getInventory()
+    {
+        return inventory;
+    }
+}
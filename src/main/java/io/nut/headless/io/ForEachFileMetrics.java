@@ -0,0 +1,455 @@
+/*
+ *  ForEachFileMetrics.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and phase timers of a ForEachFile crawl. Counters are LongAdder so the crawling
+ * thread barely pays for them and any other thread can read them at any time. A listener
+ * can be given to receive a snapshot periodically while the crawl runs and once at the end.
+ * <p>
+ * One instance can be shared by several crawls, at once or one after another, counters and
+ * elapsed time add up over all of them. Runs are reference counted, the clock and the reporter
+ * start with the first running crawl and stop with the last one, so the final snapshot is only
+ * sent when no crawl is running anymore.
+ *
+ * @author franci
+ */
+public class ForEachFileMetrics implements ForEachFileMetricsMBean
+{
+    public enum Phase
+    {
+        LISTING, STAT, FILTER, CALLBACK
+    }
+
+    public interface Listener
+    {
+        void progress(Snapshot snapshot);
+    }
+
+    /**
+     * Values of the counters at some moment, times in nanoseconds.
+     */
+    public static class Snapshot
+    {
+        public final long files;
+        public final long directories;
+        public final long archives;
+        public final long bytes;
+        public final long skipped;
+        public final long errors;
+        public final long pending;
+        public final int maxArchiveDepth;
+        public final long elapsed;
+        public final long[] phases;
+        public final boolean done;
+
+        Snapshot(ForEachFileMetrics m, boolean done)
+        {
+            this.files = m.files.sum();
+            this.directories = m.directories.sum();
+            this.archives = m.archives.sum();
+            this.bytes = m.bytes.sum();
+            this.skipped = m.skipped.sum();
+            this.errors = m.errors.sum();
+            this.pending = m.pending.sum();
+            this.maxArchiveDepth = (int) m.maxArchiveDepth.get();
+            this.elapsed = m.getElapsedNanos();
+            this.phases = new long[m.phases.length];
+            for(int i=0;i<phases.length;i++)
+            {
+                this.phases[i] = m.phases[i].sum();
+            }
+            this.done = done;
+        }
+
+        public double getFilesPerSecond()
+        {
+            return elapsed == 0 ? 0 : files * 1e9 / elapsed;
+        }
+
+        public long getPhaseNanos(Phase phase)
+        {
+            return phases[phase.ordinal()];
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("files=%d dirs=%d archives=%d bytes=%d skipped=%d errors=%d pending=%d depth=%d %.1f files/s",
+                    files, directories, archives, bytes, skipped, errors, pending, maxArchiveDepth, getFilesPerSecond());
+        }
+    }
+
+    private static final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+        Thread t = new Thread(r, "ForEachFileMetrics");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder directories = new LongAdder();
+    private final LongAdder archives = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder pending = new LongAdder();
+    private final LongAccumulator maxArchiveDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] phases = new LongAdder[Phase.values().length];
+    private final ConcurrentHashMap<String, LongAdder> errorsByClass = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+
+    private volatile boolean timed = true;
+    private long startNanos = 0;
+    private long elapsedNanos = 0;
+    private int running = 0;
+    private Listener listener = null;
+    private long period = 0;
+    private ScheduledFuture<?> task = null;
+    private ObjectName objectName = null;
+
+    public ForEachFileMetrics()
+    {
+        for(int i=0;i<phases.length;i++)
+        {
+            phases[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Phase timers cost two System.nanoTime() per phase and file, enabled by default.
+     */
+    public void setTimed(boolean timed)
+    {
+        this.timed = timed;
+    }
+
+    public boolean isTimed()
+    {
+        return timed;
+    }
+
+    /**
+     * @param listener receives a snapshot every periodMillis while running and once at the end
+     */
+    public void setListener(Listener listener, long periodMillis)
+    {
+        synchronized(lock)
+        {
+            this.listener = listener;
+            this.period = periodMillis;
+        }
+    }
+
+    void start()
+    {
+        synchronized(lock)
+        {
+            if(running++ > 0)
+            {
+                return;
+            }
+            startNanos = System.nanoTime();
+            if(listener != null && period > 0 && task == null)
+            {
+                final Listener l = listener;
+                task = reporter.scheduleAtFixedRate(() -> l.progress(new Snapshot(this, false)), period, period, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    void stop()
+    {
+        Listener l;
+        synchronized(lock)
+        {
+            if(running == 0 || --running > 0)
+            {
+                return;
+            }
+            elapsedNanos += System.nanoTime() - startNanos;
+            startNanos = 0;
+            if(task != null)
+            {
+                task.cancel(false);
+                task = null;
+            }
+            l = listener;
+        }
+        if(l != null)
+        {
+            l.progress(new Snapshot(this, true));
+        }
+    }
+
+    public Snapshot getSnapshot()
+    {
+        synchronized(lock)
+        {
+            return new Snapshot(this, running == 0 && elapsedNanos != 0);
+        }
+    }
+
+    long begin()
+    {
+        return timed ? System.nanoTime() : 0;
+    }
+
+    void end(Phase phase, long begin)
+    {
+        if(begin != 0)
+        {
+            phases[phase.ordinal()].add(System.nanoTime() - begin);
+        }
+    }
+
+    // length is 0 for files rejected by the filters, so they are not stated again
+    void addFile(long length)
+    {
+        files.increment();
+        bytes.add(length);
+    }
+
+    void addDirectory()
+    {
+        directories.increment();
+    }
+
+    void addArchive(int depth)
+    {
+        archives.increment();
+        maxArchiveDepth.accumulate(depth);
+    }
+
+    void addSkipped()
+    {
+        skipped.increment();
+    }
+
+    void addPending(long count)
+    {
+        pending.add(count);
+    }
+
+    void addError(Throwable ex)
+    {
+        errors.increment();
+        errorsByClass.computeIfAbsent(ex.getClass().getName(), k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public long getFiles()
+    {
+        return files.sum();
+    }
+
+    @Override
+    public long getDirectories()
+    {
+        return directories.sum();
+    }
+
+    @Override
+    public long getArchives()
+    {
+        return archives.sum();
+    }
+
+    /**
+     * Bytes of the files accepted by the filters.
+     */
+    @Override
+    public long getBytes()
+    {
+        return bytes.sum();
+    }
+
+    /**
+     * Files rejected by the size, filter and omit rules, entries never visited such as hidden,
+     * unreadable or already covered ones are not counted.
+     */
+    @Override
+    public long getSkipped()
+    {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    /**
+     * @return entries already listed and not visited yet
+     */
+    @Override
+    public long getPending()
+    {
+        return pending.sum();
+    }
+
+    @Override
+    public int getMaxArchiveDepth()
+    {
+        return (int) maxArchiveDepth.get();
+    }
+
+    long getElapsedNanos()
+    {
+        synchronized(lock)
+        {
+            return running == 0 ? elapsedNanos : elapsedNanos + System.nanoTime() - startNanos;
+        }
+    }
+
+    @Override
+    public long getElapsedMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getElapsedNanos());
+    }
+
+    @Override
+    public double getFilesPerSecond()
+    {
+        final long elapsed = getElapsedNanos();
+        return elapsed == 0 ? 0 : files.sum() * 1e9 / elapsed;
+    }
+
+    public long getPhaseNanos(Phase phase)
+    {
+        return phases[phase.ordinal()].sum();
+    }
+
+    @Override
+    public long getListingMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.LISTING));
+    }
+
+    @Override
+    public long getStatMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.STAT));
+    }
+
+    @Override
+    public long getFilterMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.FILTER));
+    }
+
+    @Override
+    public long getCallbackMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.CALLBACK));
+    }
+
+    public Map<String, Long> getErrorCounts()
+    {
+        TreeMap<String, Long> map = new TreeMap<>();
+        errorsByClass.forEach((k, v) -> map.put(k, v.sum()));
+        return map;
+    }
+
+    @Override
+    public String[] getErrorsByClass()
+    {
+        return getErrorCounts().entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+    }
+
+    @Override
+    public void reset()
+    {
+        files.reset();
+        directories.reset();
+        archives.reset();
+        bytes.reset();
+        skipped.reset();
+        errors.reset();
+        pending.reset();
+        maxArchiveDepth.reset();
+        for(LongAdder item : phases)
+        {
+            item.reset();
+        }
+        errorsByClass.clear();
+        synchronized(lock)
+        {
+            elapsedNanos = 0;
+            if(running > 0)
+            {
+                startNanos = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Registers these counters in the platform MBeanServer as io.nut.headless:type=ForEachFile,name=name.
+     */
+    public void register(String name) throws JMException
+    {
+        synchronized(lock)
+        {
+            unregister();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName("io.nut.headless:type=ForEachFile,name=" + ObjectName.quote(name));
+            server.registerMBean(this, on);
+            objectName = on;
+        }
+    }
+
+    public void unregister()
+    {
+        synchronized(lock)
+        {
+            if(objectName == null)
+            {
+                return;
+            }
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch (JMException ex)
+            {
+                Logger.getLogger(ForEachFileMetrics.class.getName()).log(Level.WARNING, objectName.toString(), ex);
+            }
+            objectName = null;
+        }
+    }
+}
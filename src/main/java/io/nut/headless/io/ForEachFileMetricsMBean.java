@@ -0,0 +1,49 @@
+/*
+ *  ForEachFileMetricsMBean.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+/**
+ * JMX view of ForEachFileMetrics.
+ *
+ * @author franci
+ */
+public interface ForEachFileMetricsMBean
+{
+    long getFiles();
+    long getDirectories();
+    long getArchives();
+    long getBytes();
+    long getSkipped();
+    long getErrors();
+    long getPending();
+    int getMaxArchiveDepth();
+    long getElapsedMillis();
+    double getFilesPerSecond();
+    long getListingMillis();
+    long getStatMillis();
+    long getFilterMillis();
+    long getCallbackMillis();
+    /**
+     * @return one "class=count" item per exception class
+     */
+    String[] getErrorsByClass();
+    void reset();
+}
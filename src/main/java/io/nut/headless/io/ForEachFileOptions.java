@@ -58,6 +58,10 @@ public class ForEachFileOptions
     HashSet<VirtualFileFilter> omitedFileNames;
     boolean hasAllowedFileNames;
     HashSet<VirtualFileFilter> allowedFileNames;
+    // compiled on first use, reset when a name is added
+    private volatile NameMatcher omitedDirMatcher;
+    private volatile NameMatcher omitedFileMatcher;
+    private volatile NameMatcher allowedFileMatcher;
 
     public ForEachFileOptions()
     {
@@ -282,6 +286,24 @@ public class ForEachFileOptions
         this.onlyPacked = onlyPacked;
     }
 
+    NameMatcher getOmitedDirMatcher()
+    {
+        NameMatcher m = omitedDirMatcher;
+        return (m != null) ? m : (omitedDirMatcher = new NameMatcher(omitedDirNames));
+    }
+
+    NameMatcher getOmitedFileMatcher()
+    {
+        NameMatcher m = omitedFileMatcher;
+        return (m != null) ? m : (omitedFileMatcher = new NameMatcher(omitedFileNames));
+    }
+
+    NameMatcher getAllowedFileMatcher()
+    {
+        NameMatcher m = allowedFileMatcher;
+        return (m != null) ? m : (allowedFileMatcher = new NameMatcher(allowedFileNames));
+    }
+
     public void addOmitedPath(File path)
     {
         addOmitedPath(new VirtualFile(path.getAbsoluteFile()));
@@ -308,9 +330,9 @@ public class ForEachFileOptions
 
     public void addOmitedDirName(String dirName, NameFileFilter.Rule[] requiered)
     {
-        VirtualFileFilter omitedDirFilter = VirtualFile.buildFilter(NameFileFilter.getStringInstance(dirName,requiered));
-        omitedDirNames.add(omitedDirFilter);
+        omitedDirNames.add(NameFileFilter.getStringInstance(dirName,requiered));
         hasOmitedDirNames = true;
+        omitedDirMatcher = null;
     }
     public void addOmitedDirName(String dirName)
     {
@@ -318,9 +340,9 @@ public class ForEachFileOptions
     }
     public void addOmitedDirName(String dirName,boolean wildcard,NameFileFilter.Rule[] requiered)
     {
-        VirtualFileFilter omitedDirFilter = VirtualFile.buildFilter(wildcard?NameFileFilter.getWildCardInstance(dirName,requiered):NameFileFilter.getRegExInstance(dirName,requiered));
-        omitedDirNames.add(omitedDirFilter);
+        omitedDirNames.add(wildcard?NameFileFilter.getWildCardInstance(dirName,requiered):NameFileFilter.getRegExInstance(dirName,requiered));
         hasOmitedDirNames = true;
+        omitedDirMatcher = null;
     }
     public void addOmitedDirName(String dirName,boolean wildcard)
     {
@@ -328,9 +350,9 @@ public class ForEachFileOptions
     }
     public void addOmitedFileName(String fileName, NameFileFilter.Rule[] requiered)
     {
-        VirtualFileFilter omitedFileFilter = VirtualFile.buildFilter(NameFileFilter.getStringInstance(fileName,requiered));
-        omitedFileNames.add(omitedFileFilter);
+        omitedFileNames.add(NameFileFilter.getStringInstance(fileName,requiered));
         hasOmitedFileNames = true;
+        omitedFileMatcher = null;
     }
     public void addOmitedFileName(String fileName)
     {
@@ -338,9 +360,9 @@ public class ForEachFileOptions
     }
     public void addOmitedFileName(String fileName,boolean wildcard, NameFileFilter.Rule[] requiered)
     {
-        VirtualFileFilter omitedFileFilter = VirtualFile.buildFilter(wildcard?NameFileFilter.getWildCardInstance(fileName,requiered):NameFileFilter.getRegExInstance(fileName,requiered));
-        omitedFileNames.add(omitedFileFilter);
+        omitedFileNames.add(wildcard?NameFileFilter.getWildCardInstance(fileName,requiered):NameFileFilter.getRegExInstance(fileName,requiered));
         hasOmitedFileNames = true;
+        omitedFileMatcher = null;
     }
     public void addOmitedFileName(String fileName,boolean wildcard)
     {
@@ -348,8 +370,9 @@ public class ForEachFileOptions
     }
     public void addAllowedFileName(FileFilter filter)
     {
-        allowedFileNames.add(VirtualFile.buildFilter(filter));
+        allowedFileNames.add(filter instanceof NameFileFilter ? (NameFileFilter)filter : VirtualFile.buildFilter(filter));
         hasAllowedFileNames = true;
+        allowedFileMatcher = null;
     }
     public void addAllowedFileName(String fileName)
     {
@@ -0,0 +1,291 @@
+/*
+ *  ForEachFileWatcher.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.headless.io.virtual.VirtualFile;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a ForEachFile running after its first pass. Every directory listed by the pass is
+ * watched; created and modified files go through the same filters and doForEach again,
+ * new directories are walked and watched too, and removed ones reach doDelete. A removed
+ * or moved away directory reaches doDelete once for its whole subtree, consumers drop
+ * every entry below it.
+ * <p>
+ * run() makes the first pass calling forEach.run() and then waits for changes until close(),
+ * so a ForEachFileBee should be built without eof and its bees shut down after close().
+ * Events of a directory are coalesced during getSettleMillis(), a file created and
+ * then written is sent once.
+ * Changes inside archives are not watched, a modified archive is walked again and
+ * for a removed one only the archive itself is deleted. When events are lost the
+ * directory is walked again.
+ *
+ * @author franci
+ */
+public class ForEachFileWatcher implements Runnable, Closeable
+{
+    private static final Logger logger = Logger.getLogger(ForEachFileWatcher.class.getName());
+
+    private static final class Watched
+    {
+        final Path dir;
+        final int level;
+
+        Watched(Path dir, int level)
+        {
+            this.dir = dir;
+            this.level = level;
+        }
+    }
+
+    private final ForEachFile forEach;
+    private final WatchService service;
+    private final Object lock = new Object();
+    private final HashMap<WatchKey, Watched> keys = new HashMap<>();
+    private final HashMap<Path, WatchKey> dirs = new HashMap<>();
+    private volatile boolean closed = false;
+    private volatile long settleMillis = 100;
+
+    public ForEachFileWatcher(ForEachFile forEach) throws IOException
+    {
+        this.forEach = forEach;
+        this.service = FileSystems.getDefault().newWatchService();
+    }
+
+    public ForEachFile getForEachFile()
+    {
+        return forEach;
+    }
+
+    public long getSettleMillis()
+    {
+        return settleMillis;
+    }
+
+    /**
+     * Time to wait after the first event of a directory before reading its events, so the
+     * events of a write burst are coalesced. 100 ms by default, 0 reads them at once.
+     */
+    public void setSettleMillis(long settleMillis)
+    {
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * Number of directories being watched.
+     */
+    public int getWatchedDirectories()
+    {
+        synchronized(lock)
+        {
+            return dirs.size();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        forEach.watcher = this;
+        try
+        {
+            forEach.run();
+            while (!closed)
+            {
+                WatchKey key = service.take();
+                if (settleMillis > 0)
+                {
+                    Thread.sleep(settleMillis);
+                }
+                // the keys signalled meanwhile are taken without waiting again
+                for (; key != null; key = service.poll())
+                {
+                    process(key);
+                }
+            }
+        }
+        catch (ClosedWatchServiceException ex)
+        {
+            logger.log(Level.FINE, "watch closed");
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            forEach.watcher = null;
+            try
+            {
+                close();
+            }
+            catch (IOException ex)
+            {
+                logger.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    private void process(WatchKey key)
+    {
+        Watched watched;
+        synchronized(lock)
+        {
+            watched = keys.get(key);
+        }
+        if (watched == null)
+        {
+            key.cancel();
+            return;
+        }
+        // last event of every name wins, true for removed
+        LinkedHashMap<Path, Boolean> changes = new LinkedHashMap<>();
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+            {
+                overflow = true;
+                continue;
+            }
+            Path child = watched.dir.resolve((Path) event.context());
+            changes.remove(child);
+            changes.put(child, event.kind() == StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        // a removed directory stays known until the delete event of its parent forgets it,
+        // a removed one without a watched parent, as the base directories, is deleted here
+        if (!key.reset() && !watched.dir.toFile().exists() && !isWatched(watched.dir.toAbsolutePath().getParent()))
+        {
+            forEach.delete(new VirtualFile(watched.dir.toFile()), forget(watched.dir));
+            return;
+        }
+        if (overflow)
+        {
+            logger.log(Level.WARNING, "events lost, walking again {0}", watched.dir);
+            File[] childs = watched.dir.toFile().listFiles();
+            for (int i = 0; childs != null && i < childs.length; i++)
+            {
+                forEach.visit(new VirtualFile(childs[i]), watched.level + 1);
+            }
+            return;
+        }
+        for (Map.Entry<Path, Boolean> change : changes.entrySet())
+        {
+            final File file = change.getKey().toFile();
+            if (change.getValue())
+            {
+                forEach.delete(new VirtualFile(file), forget(change.getKey()));
+            }
+            else if (!file.isDirectory() || !isWatched(change.getKey()))
+            {
+                // a known directory is only modified when its entries change, they have their own events
+                forEach.visit(new VirtualFile(file), watched.level + 1);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        service.close();
+    }
+
+    // called by ForEachFile for every listed directory
+    void register(File dir, int level)
+    {
+        if (closed)
+        {
+            return;
+        }
+        final Path path = dir.toPath();
+        try
+        {
+            WatchKey key = path.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            synchronized(lock)
+            {
+                // children are named as the first pass named them
+                keys.put(key, new Watched(path, level));
+                dirs.put(path.toAbsolutePath(), key);
+            }
+        }
+        catch (ClosedWatchServiceException ex)
+        {
+            logger.log(Level.FINE, "watch closed");
+        }
+        catch (IOException ex)
+        {
+            logger.log(Level.WARNING, "can't watch " + dir, ex);
+        }
+    }
+
+    private boolean isWatched(Path dir)
+    {
+        if (dir == null)
+        {
+            return false;
+        }
+        synchronized(lock)
+        {
+            return dirs.containsKey(dir.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Stops watching dir and the directories below it.
+     * @return true if dir was watched
+     */
+    private boolean forget(Path dir)
+    {
+        final Path path = dir.toAbsolutePath();
+        synchronized(lock)
+        {
+            if (!dirs.containsKey(path))
+            {
+                return false;
+            }
+            for (Path item : new ArrayList<>(dirs.keySet()))
+            {
+                if (item.startsWith(path))
+                {
+                    WatchKey key = dirs.remove(item);
+                    keys.remove(key);
+                    key.cancel();
+                }
+            }
+            return true;
+        }
+    }
+}
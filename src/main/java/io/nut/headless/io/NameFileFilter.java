@@ -20,6 +20,8 @@
  */
 package io.nut.headless.io;
 
+import io.nut.headless.io.virtual.VirtualFile;
+import io.nut.headless.io.virtual.VirtualFileFilter;
 import io.tea.base.util.regex.RegExs;
 import java.io.File;
 import java.io.FileFilter;
@@ -30,12 +32,14 @@ import java.util.regex.Pattern;
  *
  * @author franci
  */
-public class NameFileFilter implements FileFilter
+public class NameFileFilter implements FileFilter, VirtualFileFilter
 {
     final String filter;
     final boolean ignoreCase;
     final boolean usePath;
     final Rule[] rules;
+    // the original wildcard of getWildCardInstance, NameMatcher compiles simple ones to tries
+    String wildcard;
     
     static public class Rule 
     {
@@ -53,7 +57,13 @@ public class NameFileFilter implements FileFilter
         }
         boolean verify(File file)
         {
-            File fd = new File(file.getParentFile(),fileName);
+            File parent = file.getParentFile();
+            Boolean listed = SiblingNames.contains(parent, fileName);
+            if(listed!=null)
+            {
+                return listed;
+            }
+            File fd = new File(parent,fileName);
             return fd.exists();
         }
         static boolean verify(File file, Rule[] rules)
@@ -84,11 +94,13 @@ public class NameFileFilter implements FileFilter
     }
     public static NameFileFilter getWildCardInstance(String filter)
     {
-        return getRegExInstance(RegExs.wildcardToRegex(filter));
+        return getWildCardInstance(filter,null);
     }
     public static NameFileFilter getWildCardInstance(String filter,Rule[] rules)
     {
-        return getRegExInstance(RegExs.wildcardToRegex(filter),rules);
+        NameFileFilter nff = getRegExInstance(RegExs.wildcardToRegex(filter),rules);
+        nff.wildcard = filter;
+        return nff;
     }
     public static NameFileFilter getRegExInstance(String filter)
     {
@@ -110,6 +122,11 @@ public class NameFileFilter implements FileFilter
                 String name = usePath? file.getAbsolutePath():file.getName();
                 return pattern.matcher(name).matches();
             }
+            @Override
+            String getRegEx()
+            {
+                return filter;
+            }
         }
         return new NameFileFilterRegEx(filter,false,false,rules);
     }
@@ -132,6 +149,28 @@ public class NameFileFilter implements FileFilter
         boolean ret = ignoreCase?filter.equalsIgnoreCase(name):filter.equals(name);
         return (ret && Rule.verify(file, rules));
     }
+    /**
+     * Same as VirtualFile.buildFilter(this).
+     */
+    @Override
+    public boolean accept(VirtualFile file)
+    {
+        return accept(new File(file.getLastPath()));
+    }
+    /**
+     * @return the regular expression or null if the name is compared as is
+     */
+    String getRegEx()
+    {
+        return null;
+    }
+    /**
+     * @return true if only the name is compared, case sensitive and without rules
+     */
+    boolean isPlain()
+    {
+        return !ignoreCase && !usePath && (rules==null || rules.length==0);
+    }
     static public Rule getDir(String name, boolean all)
     {
         return new Rule(name, true, false, all);
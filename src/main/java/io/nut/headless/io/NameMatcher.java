@@ -0,0 +1,225 @@
+/*
+ *  NameMatcher.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.headless.io.virtual.VirtualFile;
+import io.nut.headless.io.virtual.VirtualFileFilter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+/**
+ * A list of name filters compiled together so a name is tested once whatever the number of
+ * filters: exact names go to a HashSet, "*suffix" and "prefix*" wildcards to tries, the other
+ * regular expressions to one alternation. Filters with Rules, case or path options and non
+ * NameFileFilter filters keep being evaluated one by one.
+ *
+ * @author franci
+ */
+final class NameMatcher
+{
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9k]");
+    // (?<name> but not the lookbehinds (?<= and (?<!
+    private static final Pattern NAMED_GROUP = Pattern.compile("\\(\\?<[a-zA-Z]");
+
+    private final boolean all;
+    private final HashSet<String> exact = new HashSet<>();
+    private final Trie suffixes = new Trie();
+    private final Trie prefixes = new Trie();
+    private final Pattern regex;
+    private final VirtualFileFilter[] others;
+    private final boolean names;
+
+    NameMatcher(Collection<VirtualFileFilter> filters)
+    {
+        boolean matchAll = false;
+        StringBuilder alternation = new StringBuilder();
+        ArrayList<VirtualFileFilter> rest = new ArrayList<>();
+        for(VirtualFileFilter item : filters)
+        {
+            if(!(item instanceof NameFileFilter) || !((NameFileFilter)item).isPlain())
+            {
+                rest.add(item);
+                continue;
+            }
+            NameFileFilter nff = (NameFileFilter) item;
+            String wildcard = nff.wildcard;
+            String re = nff.getRegEx();
+            if(re == null)
+            {
+                exact.add(nff.filter);
+            }
+            else if(wildcard != null && isLiteral(wildcard, 1, wildcard.length()) && wildcard.startsWith("*"))
+            {
+                matchAll |= wildcard.length() == 1;
+                suffixes.add(new StringBuilder(wildcard.substring(1)).reverse());
+            }
+            else if(wildcard != null && isLiteral(wildcard, 0, wildcard.length()-1) && wildcard.endsWith("*"))
+            {
+                prefixes.add(wildcard.substring(0, wildcard.length()-1));
+            }
+            else if(BACK_REFERENCE.matcher(re).find() || NAMED_GROUP.matcher(re).find())
+            {
+                // group numbers would change inside the alternation and a name can't be repeated
+                rest.add(item);
+            }
+            else
+            {
+                alternation.append(alternation.length() == 0 ? "" : "|").append("(?:").append(re).append(')');
+            }
+        }
+        this.all = matchAll;
+        this.regex = alternation.length() == 0 ? null : Pattern.compile(alternation.toString());
+        this.others = rest.toArray(new VirtualFileFilter[0]);
+        this.names = !exact.isEmpty() || !suffixes.isEmpty() || !prefixes.isEmpty() || regex != null;
+    }
+
+    private static boolean isLiteral(String wildcard, int from, int to)
+    {
+        for(int i=from;i<to;i++)
+        {
+            char c = wildcard.charAt(i);
+            if(c == '*' || c == '?' || c == '[' || c == ']' || c == '{' || c == '}' || c == '\\')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean accept(VirtualFile file)
+    {
+        if(all)
+        {
+            return true;
+        }
+        if(names)
+        {
+            // the same name NameFileFilter sees through VirtualFile.buildFilter
+            String name = new File(file.getLastPath()).getName();
+            if(exact.contains(name) || suffixes.matchesSuffix(name) || prefixes.matchesPrefix(name))
+            {
+                return true;
+            }
+            if(regex != null && regex.matcher(name).matches())
+            {
+                return true;
+            }
+        }
+        for(VirtualFileFilter item : others)
+        {
+            if(item.accept(file))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Character trie, children are kept in sorted arrays.
+     */
+    private static final class Trie
+    {
+        private static final class Node
+        {
+            char[] keys = new char[0];
+            Node[] next = new Node[0];
+            boolean terminal;
+
+            Node get(char c)
+            {
+                int i = Arrays.binarySearch(keys, c);
+                return i < 0 ? null : next[i];
+            }
+
+            Node add(char c)
+            {
+                int i = Arrays.binarySearch(keys, c);
+                if(i >= 0)
+                {
+                    return next[i];
+                }
+                i = -i - 1;
+                char[] k = new char[keys.length + 1];
+                Node[] n = new Node[next.length + 1];
+                System.arraycopy(keys, 0, k, 0, i);
+                System.arraycopy(next, 0, n, 0, i);
+                System.arraycopy(keys, i, k, i + 1, keys.length - i);
+                System.arraycopy(next, i, n, i + 1, next.length - i);
+                k[i] = c;
+                n[i] = new Node();
+                keys = k;
+                next = n;
+                return n[i];
+            }
+        }
+
+        private final Node root = new Node();
+        private boolean empty = true;
+
+        void add(CharSequence s)
+        {
+            Node node = root;
+            for(int i=0;i<s.length();i++)
+            {
+                node = node.add(s.charAt(i));
+            }
+            node.terminal = true;
+            empty = false;
+        }
+
+        boolean isEmpty()
+        {
+            return empty;
+        }
+
+        boolean matchesPrefix(String s)
+        {
+            Node node = root;
+            for(int i=0; !node.terminal; i++)
+            {
+                if(i == s.length() || (node = node.get(s.charAt(i))) == null)
+                {
+                    return false;
+                }
+            }
+            return !empty;
+        }
+
+        // the trie holds reversed suffixes
+        boolean matchesSuffix(String s)
+        {
+            Node node = root;
+            for(int i=s.length()-1; !node.terminal; i--)
+            {
+                if(i < 0 || (node = node.get(s.charAt(i))) == null)
+                {
+                    return false;
+                }
+            }
+            return !empty;
+        }
+    }
+}
@@ -53,7 +53,27 @@ public class PackedFileHash
     private byte[] fullSHA1 = null;
     private boolean exception = false;
     private FileDigest digest = null;
+    private byte[] sample = null;
+    private int hash = 0;
+    private boolean hashed = false;
     private final Object lock = new Object();
+
+    private static volatile boolean contentHashCode = false;
+
+    /**
+     * When enabled hashCode mixes the size with the sampled fingerprint, read once and cached,
+     * so same sized files spread over the buckets of hash based collections instead of being
+     * compared one by one. Set it before filling any collection, disabled by default.
+     */
+    public static void setContentHashCode(boolean value)
+    {
+        contentHashCode = value;
+    }
+
+    public static boolean isContentHashCode()
+    {
+        return contentHashCode;
+    }
     private static final boolean pow2 = true;
 
     /**
@@ -143,7 +163,27 @@ public class PackedFileHash
     @Override
     public int hashCode()
     {
-        return (int) (file.length() % Integer.MAX_VALUE);
+        if (!contentHashCode || this.size == 0)
+        {
+            return (int) (this.size % Integer.MAX_VALUE);
+        }
+        synchronized (lock)
+        {
+            if (!hashed)
+            {
+                try
+                {
+                    hash = SampledFingerprint.hashCode(size, getSample());
+                }
+                catch (IOException | ArchiveException ex)
+                {
+                    Logger.getLogger(PackedFileHash.class.getName()).log(Level.WARNING, file.getPath(), ex);
+                    hash = Long.hashCode(size);
+                }
+                hashed = true;
+            }
+            return hash;
+        }
     }
 
     private synchronized void buildFastHash() throws IOException, ArchiveException
@@ -210,26 +250,20 @@ public class PackedFileHash
             return;
         }
         boolean error = true;
-        InputStream fis = null;
+        FileDigest fd = null;
         try
         {
             MessageDigest md5 = MessageDigest.getInstance(MD5);
             MessageDigest sha1 = MessageDigest.getInstance(SHA1);
-            byte[] buf = new byte[bufSize];
-            fis = file.getInputStream();
-            int r;
-
-            while ((r = fis.read(buf)) > 0)
-            {
-                md5.update(buf, 0, r);
-                sha1.update(buf, 0, r);
-            }
-
-            fullMD5 = md5.digest();
-            fullSHA1 = sha1.digest();
+            // both digests are fed from the same reads, each one in its own thread
+            fd = new FileDigest(file, new MessageDigest[]{md5, sha1}, true);
+            fd.keepOn();
+            byte[][] full = fd.getHashes();
+            fullMD5 = full[0];
+            fullSHA1 = full[1];
             error = false;
         }
-        catch (NoSuchAlgorithmException ex)
+        catch (NoSuchAlgorithmException | CloneNotSupportedException ex)
         {
             Logger.getLogger(PackedFileHash.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -241,9 +275,9 @@ public class PackedFileHash
             }
             try
             {
-                if (fis != null)
+                if (fd != null)
                 {
-                    fis.close();
+                    fd.keepOff();
                 }
             }
             catch (IOException ex)
@@ -305,6 +339,19 @@ public class PackedFileHash
         VirtualFile cause = null;
         try
         {
+            // a few blocks spread over the file reject most different files early
+            if (SampledFingerprint.isSampled(size))
+            {
+                cause = this.file;
+                byte[] sampleA = this.getSample();
+                cause = other.file;
+                byte[] sampleB = other.getSample();
+                cause = null;
+                if (!Arrays.equals(sampleA, sampleB))
+                {
+                    return false;
+                }
+            }
             final FileDigest digestA = this.getDigest();
             final FileDigest digestB = other.getDigest();
             digestA.keepOn();
@@ -313,6 +360,13 @@ public class PackedFileHash
                 digestB.keepOn();
                 try
                 {
+                    TreeFileDigest treeA = digestA.getTree();
+                    TreeFileDigest treeB = digestB.getTree();
+                    if (treeA != null && treeB != null)
+                    {
+                        cause = this.file;
+                        return TreeFileDigest.compare(treeA, treeB) == 0;
+                    }
                     for (int i = 0; i < SIZES.length - 1 && SIZES[i]<size ; i++)
                     {
                         // avoid reading just few bytes in the next iteration
@@ -381,6 +435,18 @@ public class PackedFileHash
         return false;
     }
 
+    private byte[] getSample() throws IOException, ArchiveException
+    {
+        synchronized (lock)
+        {
+            if (sample == null)
+            {
+                sample = SampledFingerprint.build(file);
+            }
+            return sample;
+        }
+    }
+
     private FileDigest getDigest() throws NoSuchAlgorithmException
     {
         synchronized (lock)
@@ -0,0 +1,195 @@
+/*
+ *  PathTrie.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Set of paths stored by components, it tells whether a path or any of its ancestors is in
+ * the set with one descent over the path string, no File nor substring is allocated. Paths
+ * are compared as File.equals does on this platform, ignoring case where it does.
+ *
+ * @author franci
+ */
+final class PathTrie
+{
+    private static final boolean IGNORE_CASE = new File("a").equals(new File("A"));
+    private static final char SEP = File.separatorChar;
+
+    private static final class Node
+    {
+        String[] keys = new String[0];
+        Node[] next = new Node[0];
+        boolean terminal;
+
+        // binary search of path[from,to) among keys
+        int find(String path, int from, int to)
+        {
+            int lo = 0;
+            int hi = keys.length - 1;
+            while(lo <= hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(keys[mid], path, from, to);
+                if(cmp < 0)
+                {
+                    lo = mid + 1;
+                }
+                else if(cmp > 0)
+                {
+                    hi = mid - 1;
+                }
+                else
+                {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+
+        Node add(String path, int from, int to)
+        {
+            int i = find(path, from, to);
+            if(i >= 0)
+            {
+                return next[i];
+            }
+            i = -i - 1;
+            String[] k = new String[keys.length + 1];
+            Node[] n = new Node[next.length + 1];
+            System.arraycopy(keys, 0, k, 0, i);
+            System.arraycopy(next, 0, n, 0, i);
+            System.arraycopy(keys, i, k, i + 1, keys.length - i);
+            System.arraycopy(next, i, n, i + 1, next.length - i);
+            k[i] = path.substring(from, to);
+            n[i] = new Node();
+            keys = k;
+            next = n;
+            return n[i];
+        }
+    }
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    private static int compare(String key, String path, int from, int to)
+    {
+        final int n = Math.min(key.length(), to - from);
+        for(int i=0;i<n;i++)
+        {
+            char a = key.charAt(i);
+            char b = path.charAt(from + i);
+            if(a != b)
+            {
+                if(IGNORE_CASE)
+                {
+                    a = Character.toLowerCase(Character.toUpperCase(a));
+                    b = Character.toLowerCase(Character.toUpperCase(b));
+                    if(a == b)
+                    {
+                        continue;
+                    }
+                }
+                return a - b;
+            }
+        }
+        return key.length() - (to - from);
+    }
+
+    // roots like "/" or "C:\" keep a trailing separator, it is not a component
+    private static int end(String path)
+    {
+        final int n = path.length();
+        return (n > 0 && path.charAt(n - 1) == SEP) ? n - 1 : n;
+    }
+
+    void add(File file)
+    {
+        final String path = file.getPath();
+        final int end = end(path);
+        Node node = root;
+        int from = 0;
+        while(true)
+        {
+            int to = path.indexOf(SEP, from);
+            if(to < 0 || to > end)
+            {
+                to = end;
+            }
+            node = node.add(path, from, to);
+            if(to == end)
+            {
+                break;
+            }
+            from = to + 1;
+        }
+        if(!node.terminal)
+        {
+            node.terminal = true;
+            size++;
+        }
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @param self true to match file itself
+     * @param ancestors true to match any of the parents of file
+     */
+    boolean contains(File file, boolean self, boolean ancestors)
+    {
+        if(size == 0)
+        {
+            return false;
+        }
+        final String path = file.getPath();
+        final int end = end(path);
+        Node node = root;
+        int from = 0;
+        while(true)
+        {
+            int to = path.indexOf(SEP, from);
+            if(to < 0 || to > end)
+            {
+                to = end;
+            }
+            int i = node.find(path, from, to);
+            if(i < 0)
+            {
+                return false;
+            }
+            node = node.next[i];
+            if(to == end)
+            {
+                return self && node.terminal;
+            }
+            if(ancestors && node.terminal)
+            {
+                return true;
+            }
+            from = to + 1;
+        }
+    }
+}
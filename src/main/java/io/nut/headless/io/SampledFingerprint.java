@@ -0,0 +1,176 @@
+/*
+ *  SampledFingerprint.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.base.crypto.Digest;
+import io.nut.headless.io.virtual.VirtualFile;
+import io.nut.headless.io.virtual.VirtualFilePool;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.apache.commons.compress.archivers.ArchiveException;
+
+/**
+ * Digest of a few small blocks spread over a file: the start, the quartiles and the end.
+ * Files sharing a long header, like media containers or disk images, usually differ in
+ * some of them, so most non duplicates are rejected after reading a few KB. Plain files
+ * are read with positional reads, archive entries have to be streamed up to the end.
+ *
+ * @author franci
+ */
+public class SampledFingerprint
+{
+    public static final int BLOCKS = 5;
+    public static final int BLOCK_SIZE = 4*1024;
+
+    private static volatile long minSize = 64*1024;
+
+    /**
+     * Files shorter than this are compared from the start only, disabled if Long.MAX_VALUE.
+     */
+    public static void setMinSize(long bytes)
+    {
+        minSize = bytes;
+    }
+
+    public static long getMinSize()
+    {
+        return minSize;
+    }
+
+    public static boolean isSampled(long length)
+    {
+        return length>=minSize && length>=(long)BLOCKS*BLOCK_SIZE;
+    }
+
+    /**
+     * Offsets of the blocks, evenly spread from 0 to length-blockSize.
+     */
+    public static long[] offsets(long length, int blocks, int blockSize)
+    {
+        final long last = Math.max(0, length-blockSize);
+        long[] offsets = new long[blocks];
+        for(int i=0;i<blocks;i++)
+        {
+            offsets[i] = (blocks==1) ? 0 : (long)(last * ((double)i/(blocks-1)));
+        }
+        return offsets;
+    }
+
+    public static byte[] build(File file) throws IOException
+    {
+        final long length = file.length();
+        final MessageDigest md = newDigest();
+        final ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+        VirtualFilePool.acquire();
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            for(long offset : offsets(length, BLOCKS, BLOCK_SIZE))
+            {
+                buf.clear();
+                buf.limit((int) Math.min(BLOCK_SIZE, length-offset));
+                for(long pos=offset; buf.hasRemaining(); )
+                {
+                    int r = channel.read(buf, pos);
+                    if(r<0)
+                    {
+                        throw new EOFException(file+" is shorter than "+length+" bytes");
+                    }
+                    pos += r;
+                }
+                buf.flip();
+                md.update(buf);
+            }
+        }
+        finally
+        {
+            VirtualFilePool.release();
+        }
+        return md.digest();
+    }
+
+    public static byte[] build(VirtualFile file) throws IOException, ArchiveException
+    {
+        if(!file.isComplex())
+        {
+            return build(file.getBaseFile());
+        }
+        final long length = file.length();
+        final MessageDigest md = newDigest();
+        try(InputStream in = file.getInputStream())
+        {
+            if(length<(long)BLOCKS*BLOCK_SIZE)
+            {
+                // blocks overlap, the whole file is small enough
+                final byte[] all = in.readAllBytes();
+                for(long offset : offsets(all.length, BLOCKS, BLOCK_SIZE))
+                {
+                    md.update(all, (int) offset, (int) Math.min(BLOCK_SIZE, all.length-offset));
+                }
+                return md.digest();
+            }
+            long pos = 0;
+            for(long offset : offsets(length, BLOCKS, BLOCK_SIZE))
+            {
+                in.skipNBytes(offset-pos);
+                byte[] block = in.readNBytes(BLOCK_SIZE);
+                if(block.length<BLOCK_SIZE)
+                {
+                    throw new EOFException(file+" is shorter than "+length+" bytes");
+                }
+                md.update(block);
+                pos = offset+BLOCK_SIZE;
+            }
+        }
+        return md.digest();
+    }
+
+    /**
+     * Mixes the length with the first bytes of a fingerprint, equal contents give equal values.
+     */
+    public static int hashCode(long length, byte[] fingerprint)
+    {
+        int h = 0;
+        for(int i=0;i<4 && i<fingerprint.length;i++)
+        {
+            h = (h << 8) | (fingerprint[i] & 0xff);
+        }
+        return 31 * Long.hashCode(length) + h;
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(Digest.SHA256);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  SiblingNames.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+/**
+ * Names of the directories ForEachFile is listing, per thread. NameFileFilter.Rule asks here
+ * before doing a stat, so rules like "omit dirs that have a .nomedia sibling" cost nothing more
+ * than the listing already done. The set of a directory is built the first time it is asked.
+ *
+ * @author franci
+ */
+final class SiblingNames
+{
+    private static final class Frame
+    {
+        final File dir;
+        final File[] children;
+        HashSet<String> names;
+
+        Frame(File dir, File[] children)
+        {
+            this.dir = dir;
+            this.children = children;
+        }
+
+        boolean contains(String name)
+        {
+            if(names == null)
+            {
+                names = new HashSet<>(children.length * 2);
+                for(File item : children)
+                {
+                    names.add(item.getName());
+                }
+            }
+            return names.contains(name);
+        }
+    }
+
+    private static final ThreadLocal<ArrayDeque<Frame>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private SiblingNames()
+    {
+    }
+
+    /**
+     * dir is being walked and children is its listing, until the matching leave.
+     */
+    static void enter(File dir, File[] children)
+    {
+        frames.get().push(new Frame(dir, children));
+    }
+
+    static void leave()
+    {
+        frames.get().pop();
+    }
+
+    /**
+     * @return whether dir has an entry called name, or null if dir isn't being walked
+     */
+    static Boolean contains(File dir, String name)
+    {
+        Frame frame = frames.get().peek();
+        if(frame == null || dir == null || !frame.dir.equals(dir))
+        {
+            return null;
+        }
+        return frame.contains(name);
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *  TreeFileDigest.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io;
+
+import io.nut.headless.io.virtual.VirtualFilePool;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tree hash of a plain file. The file is split in fixed size chunks hashed in parallel
+ * with positional reads; the root is a binary Merkle tree over them, leaves are
+ * hash(0x00 || chunk) and nodes hash(0x01 || left || right), an odd node goes up as is.
+ * Chunk hashes are computed on demand and kept, so comparisons stop at the first
+ * differing chunk. More threads than cores may help on devices with deep queues.
+ *
+ * @author franci
+ */
+public class TreeFileDigest
+{
+    public static final int DEFAULT_CHUNK_SIZE = 4*1024*1024;
+    private static final int IO_SIZE = 1024*1024;
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(r ->
+    {
+        Thread t = new Thread(r, "TreeFileDigest");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(IO_SIZE));
+
+    private final File file;
+    private final String algorithm;
+    private final int chunkSize;
+    private final int threads;
+    private final long length;
+    private final byte[][] leaves;
+    private byte[] root = null;
+
+    /**
+     * @param threads chunks hashed at the same time
+     */
+    public TreeFileDigest(File file, String algorithm, int chunkSize, int threads) throws NoSuchAlgorithmException
+    {
+        ChecksumDigest.getInstance(algorithm);
+        this.file = file;
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.threads = Math.max(1, threads);
+        this.length = file.length();
+        this.leaves = new byte[(int) Math.max(1, (length+chunkSize-1)/chunkSize)][];
+    }
+
+    public TreeFileDigest(File file, String algorithm) throws NoSuchAlgorithmException
+    {
+        this(file, algorithm, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public String getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    public int getChunkCount()
+    {
+        return leaves.length;
+    }
+
+    public synchronized byte[] getChunkHash(int i) throws IOException
+    {
+        if(leaves[i]==null)
+        {
+            compute(i, Math.min(leaves.length, i+threads));
+        }
+        return leaves[i];
+    }
+
+    public synchronized byte[][] getChunkHashes() throws IOException
+    {
+        compute(0, leaves.length);
+        return leaves.clone();
+    }
+
+    public synchronized byte[] getRoot() throws IOException
+    {
+        if(root==null)
+        {
+            compute(0, leaves.length);
+            MessageDigest md = newDigest(algorithm);
+            byte[][] level = leaves.clone();
+            for(int n=level.length; n>1; n=(n+1)/2)
+            {
+                for(int i=0;i<n;i+=2)
+                {
+                    if(i+1<n)
+                    {
+                        md.update((byte) 1);
+                        md.update(level[i]);
+                        md.update(level[i+1]);
+                        level[i/2] = md.digest();
+                    }
+                    else
+                    {
+                        level[i/2] = level[i];
+                    }
+                }
+            }
+            root = level[0];
+        }
+        return root;
+    }
+
+    /**
+     * Index of the first chunk that differs, or -1 if both have the same length and chunks.
+     * Chunks are hashed in batches, so the files are read only up to the first difference.
+     */
+    public static int firstDifference(TreeFileDigest a, TreeFileDigest b) throws IOException
+    {
+        if(a.chunkSize!=b.chunkSize || !a.algorithm.equals(b.algorithm))
+        {
+            throw new IllegalArgumentException("different chunk size or algorithm");
+        }
+        final int common = Math.min(a.leaves.length, b.leaves.length);
+        final int batch = Math.max(a.threads, b.threads);
+        for(int from=0;from<common;from+=batch)
+        {
+            final int to = Math.min(common, from+batch);
+            synchronized(a)
+            {
+                a.compute(from, to);
+            }
+            synchronized(b)
+            {
+                b.compute(from, to);
+            }
+            for(int i=from;i<to;i++)
+            {
+                if(!Arrays.equals(a.leaves[i], b.leaves[i]))
+                {
+                    return i;
+                }
+            }
+        }
+        return (a.length==b.length) ? -1 : common;
+    }
+
+    /**
+     * Orders by the first differing chunk hash, then by length. Zero means same content.
+     */
+    public static int compare(TreeFileDigest a, TreeFileDigest b) throws IOException
+    {
+        int i = firstDifference(a, b);
+        if(i<0)
+        {
+            return 0;
+        }
+        if(i<a.leaves.length && i<b.leaves.length)
+        {
+            return Arrays.compare(a.leaves[i], b.leaves[i]);
+        }
+        return Long.compare(a.length, b.length);
+    }
+
+    // hashes the missing chunks in [from, to) with up to threads workers
+    private void compute(int from, int to) throws IOException
+    {
+        while(from<to && leaves[from]!=null)
+        {
+            from++;
+        }
+        if(from>=to)
+        {
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger(from);
+        final int end = to;
+        VirtualFilePool.acquire();
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+            for(int w=0, n=Math.min(threads, to-from);w<n;w++)
+            {
+                futures.add(workers.submit(() ->
+                {
+                    MessageDigest md = newDigest(algorithm);
+                    for(int i; (i=next.getAndIncrement())<end; )
+                    {
+                        if(leaves[i]==null)
+                        {
+                            leaves[i] = hashChunk(channel, i, md);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for(Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch(ExecutionException ex)
+        {
+            if(ex.getCause() instanceof IOException)
+            {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        finally
+        {
+            VirtualFilePool.release();
+        }
+    }
+
+    private byte[] hashChunk(FileChannel channel, int i, MessageDigest md) throws IOException
+    {
+        final ByteBuffer buf = buffers.get();
+        long pos = (long) i * chunkSize;
+        final long end = Math.min(length, pos+chunkSize);
+        md.update((byte) 0);
+        while(pos<end)
+        {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end-pos));
+            int r = channel.read(buf, pos);
+            if(r<0)
+            {
+                throw new EOFException(file+" is shorter than "+length+" bytes");
+            }
+            buf.flip();
+            md.update(buf);
+            pos += r;
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest(String algorithm)
+    {
+        try
+        {
+            return ChecksumDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  ArchiveOpenEvent.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io.virtual;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of VirtualFilePool opening an archive entry, disabled by default. The duration
+ * covers reaching the entry, every enclosing archive is scanned from its start.
+ *
+ * @author franci
+ */
+@Name("io.nut.headless.ArchiveOpen")
+@Label("Archive Open")
+@Category({"Nut", "IO"})
+@Description("An archive entry opened by VirtualFilePool")
+@Enabled(false)
+@StackTrace(false)
+final class ArchiveOpenEvent extends jdk.jfr.Event
+{
+    @Label("Path")
+    String path;
+
+    @Label("Depth")
+    @Description("Archives enclosing the entry")
+    int depth;
+
+    @Label("Random Access")
+    @Description("Outermost entry found through the zip central directory instead of scanning the stream")
+    boolean randomAccess;
+}
@@ -22,7 +22,6 @@ package io.nut.headless.io.virtual;
 
 import io.nut.base.io.FileUtils;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -33,6 +32,8 @@ import java.io.InputStream;
 class FileVirtualFileSystem implements VirtualFileSystem
 {
     final File file;
+    // root of the entries when the file is an archive, built once on first use
+    private volatile PathNode node;
 
     public FileVirtualFileSystem(File file)
     {
@@ -43,14 +44,29 @@ class FileVirtualFileSystem implements VirtualFileSystem
         this.file = new File(fileName);
     }
 
+    PathNode getNode()
+    {
+        PathNode root = node;
+        if (root == null)
+        {
+            root = node = new PathNode(null, file.getPath());
+        }
+        return root;
+    }
+
     public long length()
     {
         return file.length();
     }
 
+    public long lastModified()
+    {
+        return file.lastModified();
+    }
+
     public InputStream getInputStream() throws IOException
     {
-        return new FileInputStream(file);
+        return VirtualFilePool.open(file);
     }
     public String getAbsolutePath() throws IOException
     {
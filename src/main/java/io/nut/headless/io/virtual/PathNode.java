@@ -0,0 +1,167 @@
+/*
+ *  PathNode.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.io.virtual;
+
+/**
+ * Path of an archive entry as a chain of segments up to the file holding the outermost archive.
+ * Siblings share their parent node and segment names are interned, so an entry costs one small
+ * node instead of a copy of every parent name. The hash is computed once, equal to
+ * Arrays.hashCode of splitPath(), and equals usually stops at the first shared parent.
+ *
+ * @author franci
+ */
+final class PathNode
+{
+    final PathNode parent;
+    final String name;
+    final int depth;
+    private final int hash;
+
+    PathNode(PathNode parent, String name)
+    {
+        this.parent = parent;
+        this.name = name.intern();
+        this.depth = (parent == null) ? 1 : parent.depth + 1;
+        this.hash = 31 * (parent == null ? 1 : parent.hash) + this.name.hashCode();
+    }
+
+    static PathNode of(String[] items)
+    {
+        PathNode node = null;
+        for(String item : items)
+        {
+            node = new PathNode(node, item);
+        }
+        return node;
+    }
+
+    PathNode child(String name)
+    {
+        return new PathNode(this, name);
+    }
+
+    PathNode root()
+    {
+        PathNode node = this;
+        while(node.parent != null)
+        {
+            node = node.parent;
+        }
+        return node;
+    }
+
+    String[] toArray()
+    {
+        String[] items = new String[depth];
+        for(PathNode node = this; node != null; node = node.parent)
+        {
+            items[node.depth - 1] = node.name;
+        }
+        return items;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(this == obj)
+        {
+            return true;
+        }
+        if(!(obj instanceof PathNode))
+        {
+            return false;
+        }
+        PathNode a = this;
+        PathNode b = (PathNode) obj;
+        if(a.hash != b.hash || a.depth != b.depth)
+        {
+            return false;
+        }
+        // names are interned, the walk ends at the first node both paths share
+        while(a != b)
+        {
+            if(a.name != b.name)
+            {
+                return false;
+            }
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+
+    /**
+     * Compares item by item from the root as splitPath() arrays would, without building them.
+     */
+    int compareTo(PathNode other)
+    {
+        PathNode a = this;
+        PathNode b = other;
+        while (a.depth > b.depth)
+        {
+            a = a.parent;
+        }
+        while (b.depth > a.depth)
+        {
+            b = b.parent;
+        }
+        // the last different pair found going up is the first one from the root
+        PathNode x = null;
+        PathNode y = null;
+        for (; a != b; a = a.parent, b = b.parent)
+        {
+            if (a.name != b.name)
+            {
+                x = a;
+                y = b;
+            }
+        }
+        if (x != null)
+        {
+            return x.name.compareTo(y.name);
+        }
+        return Integer.compare(depth, other.depth);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        append(sb);
+        return sb.toString();
+    }
+
+    private void append(StringBuilder sb)
+    {
+        if(parent != null)
+        {
+            parent.append(sb);
+            sb.append(VirtualFileSystem.pathSeparator);
+        }
+        sb.append(name);
+    }
+}
@@ -24,7 +24,6 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
 
@@ -43,34 +42,47 @@ public class VirtualFile implements /*Comparable<VirtualFile>,*/ Cloneable
     public VirtualFile(String pathname)
     {
         String[] items = pathname.split(VirtualFileSystem.pathSeparator);
-        this.fs   = pathname.contains(VirtualFileSystem.pathSeparator)?new ZipVirtualFileSystem(items,pathname):new FileVirtualFileSystem(pathname);
+        this.fs   = pathname.contains(VirtualFileSystem.pathSeparator)?new ZipVirtualFileSystem(items):new FileVirtualFileSystem(pathname);
     }
     public VirtualFile(VirtualFile parent, String child)
     {
-        String[] parentItems = parent.splitPath();
-        String[] items = Arrays.copyOf(parentItems, parentItems.length+1);
-        items[parentItems.length]=child;
-        this.fs = new ZipVirtualFileSystem(items);
+        this.fs = new ZipVirtualFileSystem(parent.getNode().child(child), null);
     }
     public VirtualFile(VirtualFile parent, ArchiveEntry child)
     {
-        String[] parentItems = parent.splitPath();
-        String[] items = Arrays.copyOf(parentItems, parentItems.length+1);
-        items[parentItems.length]=child.toString();
-        this.fs = new ZipVirtualFileSystem(items,child);
+        this.fs = new ZipVirtualFileSystem(parent.getNode().child(child.toString()),child);
     }
     VirtualFile(VirtualFileSystem fs)
     {
         this.fs = fs;
     }
+    // entries of the same archive share the node of the archive
+    private PathNode getNode()
+    {
+        return (fs instanceof ZipVirtualFileSystem) ? ((ZipVirtualFileSystem)fs).getNode() : ((FileVirtualFileSystem)fs).getNode();
+    }
     public String[] splitPath()
     {
         return fs.splitPath();
     }
+    /**
+     * @return 1 for plain files, plus one per enclosing archive
+     */
+    public int getDepth()
+    {
+        return (fs instanceof ZipVirtualFileSystem) ? ((ZipVirtualFileSystem)fs).getNode().depth : 1;
+    }
     public long length()
     {
         return fs.length();
     }
+    /**
+     * @return the modification time of the file or the archive entry, 0 if unknown
+     */
+    public long lastModified()
+    {
+        return fs.lastModified();
+    }
     public InputStream getInputStream() throws IOException, ArchiveException
     {
         return fs.getInputStream();
@@ -21,13 +21,21 @@
 package io.nut.headless.io.virtual;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.ref.Cleaner;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
@@ -36,17 +44,251 @@ import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 
 /**
+ * Opens plain files and archive entries. Every stream holds one file handle of a global
+ * budget until it is closed, get blocks while the budget is exhausted, so parallel hashing
+ * can't run out of file descriptors. FileChannels opened elsewhere take their handle with
+ * acquire and release. Streams that become unreachable without being closed
+ * are closed by a Cleaner and reported, with their allocation site when setTrackAllocations
+ * is enabled.
  *
  * @author franci
  */
 public class VirtualFilePool
 {
     private static final boolean zipOpt = true;
-    private static final AtomicInteger fisActive = new AtomicInteger();
+    private static final Logger logger = Logger.getLogger(VirtualFilePool.class.getName());
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private static final Budget budget = new Budget(256);
+    private static final AtomicInteger active = new AtomicInteger();
+    private static final LongAccumulator peak = new LongAccumulator(Math::max, 0);
+    private static final LongAdder opened = new LongAdder();
+    private static final LongAdder waits = new LongAdder();
+    private static final LongAdder leaked = new LongAdder();
+    private static volatile boolean trackAllocations = false;
+
+    // a Semaphore subclass only to reach reducePermits, that shrinks the budget without blocking
+    private static final class Budget extends Semaphore
+    {
+        private static final long serialVersionUID = 1L;
+        private int max;
+
+        Budget(int max)
+        {
+            super(max, true);
+            this.max = max;
+        }
+
+        synchronized void resize(int value)
+        {
+            int delta = value - max;
+            if(delta>0)
+            {
+                release(delta);
+            }
+            else if(delta<0)
+            {
+                reducePermits(-delta);
+            }
+            max = value;
+        }
+
+        synchronized int getMax()
+        {
+            return max;
+        }
+    }
+
+    /**
+     * Closes the resource and gives its handle back, either from close() or from the Cleaner.
+     * It must not reference the stream, otherwise the stream would never become unreachable.
+     */
+    private static final class Handle implements Runnable
+    {
+        private final Closeable resource;
+        private final String path;
+        private final Throwable site;
+        private volatile boolean closed = false;
+
+        Handle(Closeable resource, String path)
+        {
+            this.resource = resource;
+            this.path = path;
+            this.site = trackAllocations ? new Throwable("allocation site of "+path) : null;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                resource.close();
+            }
+            catch (IOException ex)
+            {
+                logger.log(Level.WARNING, path, ex);
+            }
+            finally
+            {
+                release();
+            }
+            if(!closed)
+            {
+                leaked.increment();
+                if(site!=null)
+                {
+                    logger.log(Level.WARNING, "stream not closed: "+path, site);
+                }
+                else
+                {
+                    logger.log(Level.WARNING, "stream not closed: {0}, enable VirtualFilePool.setTrackAllocations to find where it was opened", path);
+                }
+            }
+        }
+    }
+
+    private static final class HandleInputStream extends FilterInputStream
+    {
+        private final Handle handle;
+        private final Cleaner.Cleanable cleanable;
+
+        HandleInputStream(InputStream in, Handle handle)
+        {
+            super(in);
+            this.handle = handle;
+            this.cleanable = cleaner.register(this, handle);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                handle.closed = true;
+                cleanable.clean();
+            }
+        }
+    }
+
     public VirtualFilePool()
     {
     }
 
+    /**
+     * Maximum number of open handles, 256 by default.
+     */
+    public static void setMaxHandles(int value)
+    {
+        if(value<1)
+        {
+            throw new IllegalArgumentException("maxHandles must be positive: "+value);
+        }
+        budget.resize(value);
+    }
+
+    public static int getMaxHandles()
+    {
+        return budget.getMax();
+    }
+
+    /**
+     * Captures a stack trace on every open, so leaked streams can be reported with the
+     * place where they were opened. Disabled by default.
+     */
+    public static void setTrackAllocations(boolean value)
+    {
+        trackAllocations = value;
+    }
+
+    public static boolean isTrackAllocations()
+    {
+        return trackAllocations;
+    }
+
+    public static int getActiveHandles()
+    {
+        return active.get();
+    }
+
+    public static int getPeakHandles()
+    {
+        return (int) peak.get();
+    }
+
+    public static long getOpenedHandles()
+    {
+        return opened.sum();
+    }
+
+    /**
+     * @return times get had to wait for a handle
+     */
+    public static long getHandleWaits()
+    {
+        return waits.sum();
+    }
+
+    /**
+     * @return streams closed by the Cleaner because their owners never closed them
+     */
+    public static long getLeakedHandles()
+    {
+        return leaked.sum();
+    }
+
+    /**
+     * Takes one handle of the budget for a file opened outside the pool, such as a FileChannel,
+     * blocking while the budget is exhausted. Every call must be paired with release once the
+     * file is closed.
+     */
+    public static void acquire() throws InterruptedIOException
+    {
+        if(!budget.tryAcquire())
+        {
+            waits.increment();
+            try
+            {
+                budget.acquire();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for a file handle");
+            }
+        }
+        opened.increment();
+        peak.accumulate(active.incrementAndGet());
+    }
+
+    public static void release()
+    {
+        active.decrementAndGet();
+        budget.release();
+    }
+
+    /**
+     * Opens a plain file holding one handle of the budget until the stream is closed.
+     */
+    public static InputStream open(File file) throws IOException
+    {
+        acquire();
+        final FileInputStream fis;
+        try
+        {
+            fis = new FileInputStream(file);
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            release();
+            throw ex;
+        }
+        return new HandleInputStream(fis, new Handle(fis, file.getPath()));
+    }
+
     private InputStream getEntryInputStream(InputStream in, String entryName) throws IOException, ArchiveException
     {
         final ArchiveInputStream ais = asf.createArchiveInputStream(new BufferedInputStream(in));
@@ -67,37 +309,61 @@ public class VirtualFilePool
         {
             return getZipEntryInputStream(file, entryName);
         }
-        final FileInputStream fis = new FileInputStream(file);
-        return new FilterInputStream(getEntryInputStream(new FileInputStream(file),entryName))
+        final InputStream fis = open(file);
+        try
         {
-            final int id = fisActive.getAndIncrement();
-            @Override
-            public void close() throws IOException
+            final InputStream in = getEntryInputStream(fis, entryName);
+            if(in==null)
             {
                 fis.close();
-                fisActive.getAndDecrement();
+                return null;
             }
-        };
+            return new FilterInputStream(in)
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    fis.close();
+                }
+            };
+        }
+        catch(IOException | ArchiveException | RuntimeException ex)
+        {
+            fis.close();
+            throw ex;
+        }
     }
     private InputStream getZipEntryInputStream(File file, String entryName) throws IOException, ArchiveException
     {
-        final ZipFile ze = new ZipFile(file);
-        final ZipArchiveEntry zae = ze.getEntry(entryName);
-        if(zae==null)
+        acquire();
+        final ZipFile ze;
+        try
         {
-            ze.close();
-            return null;
+            ze = new ZipFile(file);
         }
-        return new FilterInputStream(ze.getInputStream(zae))
+        catch(IOException | RuntimeException ex)
         {
-            final int id = fisActive.getAndIncrement();
-            @Override
-            public void close() throws IOException
+            release();
+            throw ex;
+        }
+        final Handle handle = new Handle(ze, file.getPath());
+        try
+        {
+            final ZipArchiveEntry zae = ze.getEntry(entryName);
+            if(zae==null)
             {
-                ze.close();
-                fisActive.getAndDecrement();
+                handle.closed = true;
+                handle.run();
+                return null;
             }
-        };
+            return new HandleInputStream(ze.getInputStream(zae), handle);
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            handle.closed = true;
+            handle.run();
+            throw ex;
+        }
     }
 
     public InputStream get(VirtualFile file) throws IOException, ArchiveException
@@ -115,11 +381,17 @@ public class VirtualFilePool
         }
         if(paths.length==1)
         {
-            return new FileInputStream(paths[0]);
+            return open(new File(paths[0]));
         }
+        final ArchiveOpenEvent event = new ArchiveOpenEvent();
+        event.begin();
+        StringBuilder curPath = new StringBuilder(paths[0]).append(VirtualFileSystem.pathSeparator).append(paths[1]);
         final InputStream fin = getEntryInputStream(new File(paths[0]), paths[1]);
+        if(fin==null)
+        {
+            throw new FileNotFoundException("'"+curPath+"' not found");
+        }
         InputStream in = fin;
-        StringBuilder curPath = new StringBuilder(paths[0]).append(paths[1]);
         try
         {
             for(int i=2;i<paths.length;i++)
@@ -131,23 +403,42 @@ public class VirtualFilePool
                     throw new FileNotFoundException("'"+curPath+"' not found");
                 }
             }
-            in = new FilterInputStream(in)
+            if(in==fin)
+            {
+                return fin;
+            }
+            return new FilterInputStream(in)
             {
-                final int id = fisActive.getAndIncrement();
                 @Override
                 public void close() throws IOException
                 {
-                    super.close();
-                    fin.close();
-                    fisActive.getAndDecrement();
+                    try
+                    {
+                        super.close();
+                    }
+                    finally
+                    {
+                        fin.close();
+                    }
                 }
             };
-            return in;
         }
-        catch(IOException ex)
+        catch(IOException | ArchiveException | RuntimeException ex)
         {
             fin.close();
             throw ex;
         }
+        finally
+        {
+            event.end();
+            if(event.shouldCommit())
+            {
+                String name = paths[0].toLowerCase();
+                event.path = String.join(VirtualFileSystem.pathSeparator, paths);
+                event.depth = paths.length-1;
+                event.randomAccess = zipOpt && (name.endsWith(".zip") || name.endsWith(".jar"));
+                event.commit();
+            }
+        }
     }
 }
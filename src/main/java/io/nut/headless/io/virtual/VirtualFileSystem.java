@@ -51,6 +51,7 @@ interface VirtualFileSystem //extends Comparable<VirtualFileSystem>
     boolean isFile();
     boolean isDirectory();
     long length();
+    long lastModified();
     boolean isLink() throws IOException;
     boolean isLink(boolean path) throws IOException;
     String getLastPath();
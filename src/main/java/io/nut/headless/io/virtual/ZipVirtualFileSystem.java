@@ -24,7 +24,7 @@ import io.nut.base.io.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.compress.archivers.ArchiveException;
@@ -38,41 +38,42 @@ class ZipVirtualFileSystem implements VirtualFileSystem
 {
 
     private static VirtualFilePool pool = new VirtualFilePool();
-    private final String[] items;
-    private final String name;
-    private String path;
+    private final PathNode node;
+    private volatile String path;
     private volatile long length;
+    private final long modified;
     private final boolean directory;
 
-    public ZipVirtualFileSystem(String[] items, String path, ArchiveEntry entry)
+    public ZipVirtualFileSystem(PathNode node, ArchiveEntry entry)
     {
-        this.items = items;
-        this.name = items[items.length - 1];
-        this.path = path;
+        this.node = node;
         if (entry != null)
         {
+            Date date = entry.getLastModifiedDate();
             this.length = entry.getSize();
+            this.modified = (date != null) ? date.getTime() : 0;
             this.directory = entry.isDirectory();
         }
         else
         {
             this.length = 0;
+            this.modified = 0;
             this.directory = false;
         }
     }
-    public ZipVirtualFileSystem(String[] items,String path)
+    public ZipVirtualFileSystem(String[] items, ArchiveEntry entry)
     {
-        this(items,path,null);
+        this(PathNode.of(items), entry);
     }
 
-    public ZipVirtualFileSystem(String[] items, ArchiveEntry entry)
+    public ZipVirtualFileSystem(String[] items)
     {
-        this(items, null, entry);
+        this(items, null);
     }
 
-    public ZipVirtualFileSystem(String[] items)
+    PathNode getNode()
     {
-        this(items, (String) null);
+        return node;
     }
 
     public long length()
@@ -110,6 +111,11 @@ class ZipVirtualFileSystem implements VirtualFileSystem
         return length;
     }
 
+    public long lastModified()
+    {
+        return modified;
+    }
+
     @Override
     public boolean canRead()
     {
@@ -152,33 +158,27 @@ class ZipVirtualFileSystem implements VirtualFileSystem
 
     public InputStream getInputStream() throws IOException, ArchiveException
     {
-        return pool.get(items);
+        return pool.get(node.toArray());
     }
 
     public String getPath()
     {
-        if (path == null)
+        String value = path;
+        if (value == null)
         {
-            StringBuilder sb = new StringBuilder();
-            sb.append(items[0]);
-            for (int i = 1; i < items.length; i++)
-            {
-                sb.append(VirtualFileSystem.pathSeparator);
-                sb.append(items[i]);
-            }
-            path = sb.toString();
+            value = path = node.toString();
         }
-        return path;
+        return value;
     }
 
     public String[] splitPath()
     {
-        return items;
+        return node.toArray();
     }
 
     public File getBaseFile()
     {
-        return new File(items[0]);
+        return new File(node.root().name);
     }
 
     @Override
@@ -189,20 +189,17 @@ class ZipVirtualFileSystem implements VirtualFileSystem
 
     public String getName()
     {
-        return name;
+        return node.name;
     }
 
     public VirtualFileSystem getCanonicalFile() throws IOException
     {
-        String cf = new File(items[0]).getCanonicalPath();
-        if (!cf.equals(items[0]))
+        String base = node.root().name;
+        String cf = new File(base).getCanonicalPath();
+        if (!cf.equals(base))
         {
-            String[] paths = new String[items.length];
+            String[] paths = node.toArray();
             paths[0] = cf;
-            for (int i = 1; i < paths.length; i++)
-            {
-                paths[i] = items[i];
-            }
             return new ZipVirtualFileSystem(paths);
         }
         return this;
@@ -210,15 +207,12 @@ class ZipVirtualFileSystem implements VirtualFileSystem
 
     public VirtualFileSystem getAbsoluteFile() throws IOException
     {
-        String cf = new File(items[0]).getAbsolutePath();
-        if (!cf.equals(items[0]))
+        String base = node.root().name;
+        String cf = new File(base).getAbsolutePath();
+        if (!cf.equals(base))
         {
-            String[] paths = new String[items.length];
+            String[] paths = node.toArray();
             paths[0] = cf;
-            for (int i = 1; i < paths.length; i++)
-            {
-                paths[i] = items[i];
-            }
             return new ZipVirtualFileSystem(paths);
         }
         return this;
@@ -242,22 +236,18 @@ class ZipVirtualFileSystem implements VirtualFileSystem
 
     public boolean isLink(boolean path) throws IOException
     {
-        return FileUtils.isLink(new File(items[0]), path);
+        return FileUtils.isLink(getBaseFile(), path);
     }
 
     public int compareTo(VirtualFileSystem other)
     {
-        String[] otherItems = other.splitPath();
-        int num = Math.min(items.length, otherItems.length);
-        for (int i = 0; i < num; i++)
+        if (other instanceof ZipVirtualFileSystem)
         {
-            int cmp = items[i].compareTo(otherItems[i]);
-            if (cmp != 0)
-            {
-                return cmp;
-            }
+            return node.compareTo(((ZipVirtualFileSystem) other).node);
         }
-        return (items.length < otherItems.length ? -1 : (items.length == otherItems.length ? 0 : 1));
+        // a plain file is a path of one item
+        int cmp = node.root().name.compareTo(other.getPath());
+        return (cmp != 0) ? cmp : (node.depth > 1 ? 1 : 0);
     }
 
     @Override
@@ -272,22 +262,18 @@ class ZipVirtualFileSystem implements VirtualFileSystem
             return false;
         }
         final ZipVirtualFileSystem other = (ZipVirtualFileSystem) obj;
-        if (!Arrays.deepEquals(this.items, other.items))
-        {
-            return false;
-        }
-        return true;
+        return this.node.equals(other.node);
     }
 
     @Override
     public int hashCode()
     {
-        return Arrays.deepHashCode(this.items);
+        return node.hashCode();
     }
 
     public String getLastPath()
     {
-        return items[items.length - 1];
+        return node.name;
     }
 
     public boolean isComplex()
@@ -297,15 +283,6 @@ class ZipVirtualFileSystem implements VirtualFileSystem
 
     public VirtualFileSystem getParentFile()
     {
-        String[] parent = Arrays.copyOf(items, items.length-1);
-        if(parent.length>1)
-        {
-            return new ZipVirtualFileSystem(parent);
-        }
-        if(parent.length==1)
-        {
-            return new ZipVirtualFileSystem(parent);
-        }
-        return null;
+        return (node.parent != null) ? new ZipVirtualFileSystem(node.parent, null) : null;
     }
 }
@@ -0,0 +1,139 @@
+/*
+ *  VectorPixelKernels.java
+ *
+ *  Copyright (C) 2024 francitoshi@gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  Report bugs or new features to: francitoshi@gmail.com
+ */
+package io.nut.headless.image;
+
+import java.util.Arrays;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PixelKernels over the Vector API, only loaded through PixelKernels when the
+ * jdk.incubator.vector module is present. Tails are done by the scalar kernels.
+ *
+ * @author franci
+ */
+final class VectorPixelKernels extends PixelKernels
+{
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // as many byte lanes as INTS, when there is a shape for them
+    private static final VectorSpecies<Byte> LUMA = (INTS.vectorBitSize()/4 >= 64) ? VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.vectorBitSize()/4)) : null;
+
+    private final ScalarPixelKernels scalar = new ScalarPixelKernels();
+
+    @Override
+    public boolean isVector()
+    {
+        return true;
+    }
+
+    @Override
+    public int countDiffs(byte[] a, byte[] b, int length, int threshold, int limit)
+    {
+        if(threshold<0 || threshold>=0xff)
+        {
+            return scalar.countDiffs(a, b, length, threshold, limit);
+        }
+        final byte t = (byte) threshold;
+        final int bound = BYTES.loopBound(length);
+        int count = 0;
+        int i = 0;
+        for(;i<bound && count<=limit;i+=BYTES.length())
+        {
+            // flipping the sign bit maps unsigned order to signed order
+            ByteVector va = ByteVector.fromArray(BYTES, a, i).lanewise(VectorOperators.XOR, (byte)0x80);
+            ByteVector vb = ByteVector.fromArray(BYTES, b, i).lanewise(VectorOperators.XOR, (byte)0x80);
+            VectorMask<Byte> diff = va.max(vb).sub(va.min(vb)).compare(VectorOperators.UNSIGNED_GT, t);
+            count += diff.trueCount();
+        }
+        for(;i<length && count<=limit;i++)
+        {
+            int diff = (a[i]&0xff) - (b[i]&0xff);
+            if(diff>threshold || -diff>threshold)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void luma(int[] src, int srcPos, byte[] dst, int dstPos, int n)
+    {
+        if(LUMA==null)
+        {
+            scalar.luma(src, srcPos, dst, dstPos, n);
+            return;
+        }
+        final int bound = INTS.loopBound(n);
+        int i = 0;
+        for(;i<bound;i+=INTS.length())
+        {
+            IntVector c = IntVector.fromArray(INTS, src, srcPos+i);
+            IntVector r = c.lanewise(VectorOperators.LSHR, 16).and(0xff);
+            IntVector g = c.lanewise(VectorOperators.LSHR, 8).and(0xff);
+            IntVector b = c.and(0xff);
+            IntVector l = r.mul(77).add(g.mul(150)).add(b.mul(29)).add(128).lanewise(VectorOperators.ASHR, 8);
+            ((ByteVector) l.castShape(LUMA, 0)).intoArray(dst, dstPos+i);
+        }
+        scalar.luma(src, srcPos+i, dst, dstPos+i, n-i);
+    }
+
+    @Override
+    public void boxDownsample(int[] src, int offset, int stride, int fx, int fy, int[] dst, int dw, int dy0, int dy1, boolean alpha)
+    {
+        final int sw = dw*fx;
+        final int bound = INTS.loopBound(sw);
+        final RasterPool pool = RasterPool.getShared();
+        final int[] acc = pool.borrowInts(4*sw);
+        for(int y=dy0;y<dy1;y++)
+        {
+            Arrays.fill(acc, 0);
+            for(int k=0;k<fy;k++)
+            {
+                final int row = offset + (y*fy+k)*stride;
+                int x = 0;
+                for(;x<bound;x+=INTS.length())
+                {
+                    IntVector c = IntVector.fromArray(INTS, src, row+x);
+                    IntVector.fromArray(INTS, acc, x).add(c.lanewise(VectorOperators.LSHR, 24)).intoArray(acc, x);
+                    IntVector.fromArray(INTS, acc, sw+x).add(c.lanewise(VectorOperators.LSHR, 16).and(0xff)).intoArray(acc, sw+x);
+                    IntVector.fromArray(INTS, acc, 2*sw+x).add(c.lanewise(VectorOperators.LSHR, 8).and(0xff)).intoArray(acc, 2*sw+x);
+                    IntVector.fromArray(INTS, acc, 3*sw+x).add(c.and(0xff)).intoArray(acc, 3*sw+x);
+                }
+                for(;x<sw;x++)
+                {
+                    final int c = src[row+x];
+                    acc[x] += c>>>24;
+                    acc[sw+x] += (c>>16)&0xff;
+                    acc[2*sw+x] += (c>>8)&0xff;
+                    acc[3*sw+x] += c&0xff;
+                }
+            }
+            boxRow(acc, sw, fx, fy, dst, y*dw, dw, alpha);
+        }
+        pool.giveBack(acc);
+    }
+}